@@ -1,6 +1,7 @@
 package com.github.mhewedy.convo;
 
 import java.time.Instant;
+import java.util.BitSet;
 
 /**
  * Base class for all conversation holder.
@@ -10,4 +11,36 @@ public abstract class AbstractConversationHolder {
     public String _ownerId;
     public String _version;
     public Instant _expiresAt;
+    /**
+     * Incremented on each save when {@code convo.optimistic-locking} is enabled, 0 if never saved with it.
+     *
+     * @see ConversationConflictException
+     */
+    public long _revision;
+
+    /**
+     * Not persisted, set by {@link ConversationRepository} when the object is loaded or saved.
+     */
+    transient Snapshot _snapshot;
+
+    /**
+     * Not persisted, steps marked by {@link #markStepUpdated(int)} since the object was loaded or saved.
+     */
+    transient BitSet _updatedSteps;
+
+    /**
+     * Marks the step as updated, so the next save uses the marked step instead of comparing all fields
+     * with the stored state to find it.
+     *
+     * @see com.github.mhewedy.convo.annotations.TrackUpdatedSteps
+     */
+    public void markStepUpdated(int step) {
+        if (step < 1) {
+            throw new IllegalArgumentException("steps should start with 1");
+        }
+        if (_updatedSteps == null) {
+            _updatedSteps = new BitSet();
+        }
+        _updatedSteps.set(step);
+    }
 }
@@ -0,0 +1,17 @@
+package com.github.mhewedy.convo;
+
+import java.util.Map;
+
+/**
+ * Thrown when saving a conversation that has been saved by another request since it was loaded,
+ * when {@code convo.optimistic-locking} is enabled.
+ * <p>
+ * The conversation should be loaded again, and the step redone on the loaded state.
+ */
+public class ConversationConflictException extends ConversationException {
+
+    public ConversationConflictException(String conversationId, long expectedRevision) {
+        super("conversation_modified_concurrently",
+                Map.of("conversationId", conversationId, "expectedRevision", expectedRevision));
+    }
+}
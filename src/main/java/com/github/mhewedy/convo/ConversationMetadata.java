@@ -0,0 +1,269 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.annotations.AsyncSave;
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.annotations.TimeToLive;
+import com.github.mhewedy.convo.annotations.TrackUpdatedSteps;
+import com.github.mhewedy.convo.annotations.Version;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.springframework.util.ReflectionUtils.doWithFields;
+
+/**
+ * Introspected information about a conversation holder class (steps layout, version and time to live).
+ * <p>
+ * The metadata is computed once per class and cached, so that the save and find paths don't have
+ * to walk the class hierarchy and read annotations on every call.
+ */
+public final class ConversationMetadata {
+
+    private static final Set<String> HOLDER_FIELDS = Set.of("id", "_ownerId", "_version", "_expiresAt", "_revision");
+
+    /**
+     * Immutable types whose equals agrees with their json representation.
+     */
+    private static final Set<Class<?>> VALUE_TYPES = Set.of(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, BigDecimal.class, BigInteger.class, UUID.class,
+            Instant.class, LocalDate.class, LocalDateTime.class, LocalTime.class, Duration.class, Period.class,
+            Year.class, YearMonth.class, MonthDay.class
+    );
+
+    private static final ClassValue<ConversationMetadata> CACHE = new ClassValue<>() {
+        @Override
+        protected ConversationMetadata computeValue(Class<?> type) {
+            return new ConversationMetadata(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final @Nullable String version;
+    private final Duration timeToLive;
+    private final boolean trackUpdatedSteps;
+    private final boolean asyncSave;
+    private final List<StepField> fields;
+    private final List<StepField> fieldsByStep;
+    private final @Nullable String stepsError;
+
+    private ConversationMetadata(Class<?> type) {
+        this.type = type;
+        this.version = type.isAnnotationPresent(Version.class) ? type.getAnnotation(Version.class).value() : null;
+        this.timeToLive = parseTimeToLive(type);
+        this.trackUpdatedSteps = type.isAnnotationPresent(TrackUpdatedSteps.class);
+        this.asyncSave = type.isAnnotationPresent(AsyncSave.class);
+
+        List<StepField> fields = new ArrayList<>();
+        doWithFields(type, field -> {
+            var step = field.getAnnotation(Step.class);
+            fields.add(new StepField(field, step == null ? 0 : step.value()));
+        }, field -> field.getDeclaringClass() != AbstractConversationHolder.class
+                && !Modifier.isStatic(field.getModifiers())
+                && !HOLDER_FIELDS.contains(field.getName()));
+
+        this.fields = Collections.unmodifiableList(fields);
+        this.stepsError = validate(type, fields);
+        this.fieldsByStep = stepsError == null ? indexByStep(fields) : List.of();
+    }
+
+    public static ConversationMetadata of(Class<? extends AbstractConversationHolder> clazz) {
+        return CACHE.get(clazz);
+    }
+
+    public static ConversationMetadata of(AbstractConversationHolder t) {
+        return CACHE.get(t.getClass());
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return the value of {@link Version} annotation or null if the class is not annotated.
+     */
+    public @Nullable String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the value of {@link TimeToLive} annotation or its default value if the class is not annotated.
+     */
+    public Duration getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * @return true if the class is annotated with {@link TrackUpdatedSteps}
+     */
+    public boolean isTrackUpdatedSteps() {
+        return trackUpdatedSteps;
+    }
+
+    /**
+     * @return true if the class is annotated with {@link AsyncSave}
+     */
+    public boolean isAsyncSave() {
+        return asyncSave;
+    }
+
+    /**
+     * @return the number of steps of the conversation, steps are numbered from 1 to the returned value.
+     */
+    public int getStepCount() {
+        return fieldsByStep.size();
+    }
+
+    List<StepField> getFields() {
+        return fields;
+    }
+
+    /**
+     * Steps are validated to be unique, so each step is backed by exactly one field.
+     */
+    public StepField getField(int step) {
+        return fieldsByStep.get(step - 1);
+    }
+
+    /**
+     * @throws RuntimeException in case the steps layout of the conversation class is invalid
+     */
+    void validateSteps() {
+        if (stepsError != null) {
+            throw new RuntimeException(stepsError);
+        }
+    }
+
+    private static @Nullable String validate(Class<?> type, List<StepField> fields) {
+        for (StepField field : fields) {
+            if (field.step == 0) {
+                return "all conversation fields should have @Step annotation: " + type.getName() + ", field: " + field;
+            }
+        }
+        if (fields.isEmpty()) return null;
+
+        List<Integer> sortedUniqueSteps = fields.stream().map(it -> it.step).sorted().distinct().toList();
+
+        if (sortedUniqueSteps.get(0) < 1) {
+            return "steps should start with 1";
+        }
+        if (sortedUniqueSteps.size() < fields.size()) {
+            return "no duplicate steps allowed";
+        }
+        Integer latestStep = sortedUniqueSteps.get(sortedUniqueSteps.size() - 1);
+        if (latestStep != sortedUniqueSteps.size()) {
+            return "no gaps allowed in step numbers";
+        }
+        return null;
+    }
+
+    private static List<StepField> indexByStep(List<StepField> fields) {
+        StepField[] ret = new StepField[fields.size()];
+        for (StepField field : fields) {
+            ret[field.step - 1] = field;
+        }
+        return List.of(ret);
+    }
+
+    private static Duration parseTimeToLive(Class<?> type) {
+        String ttlStr;
+        try {
+            if (type.isAnnotationPresent(TimeToLive.class)) {
+                ttlStr = type.getAnnotation(TimeToLive.class).duration();
+            } else {
+                ttlStr = (String) TimeToLive.class.getMethod("duration").getDefaultValue();
+            }
+            return Duration.parse(ttlStr);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Accessor of a step field, backed by method handles created once from the field so that reads and writes
+     * don't go through reflective {@link Field#get(Object)} and {@link Field#set(Object, Object)} calls.
+     */
+    public static final class StepField {
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+        private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+        final Field field;
+        final int step;
+        /**
+         * true if the field changes can be detected using equals rather than comparing the json representation.
+         */
+        final boolean comparableByEquals;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        private StepField(Field field, int step) {
+            this.field = field;
+            this.step = step;
+            this.comparableByEquals = field.getType().isPrimitive() || field.getType().isEnum()
+                    || VALUE_TYPES.contains(field.getType());
+            try {
+                // needed by unreflectSetter for final fields, which Field#set wrote as well
+                field.setAccessible(true);
+                var lookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+                this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                this.setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("unable to access conversation field: " + field, e);
+            }
+        }
+
+        public String getName() {
+            return field.getName();
+        }
+
+        public int getStep() {
+            return step;
+        }
+
+        public Type getGenericType() {
+            return field.getGenericType();
+        }
+
+        public Object get(Object target) {
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void set(Object target, Object value) {
+            try {
+                setter.invokeExact(target, value);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return field.toString();
+        }
+    }
+}
@@ -2,11 +2,19 @@ package com.github.mhewedy.convo;
 
 import org.jspecify.annotations.Nullable;
 import tools.jackson.databind.ObjectMapper;
-import com.github.mhewedy.convo.annotations.Version;
+import com.github.mhewedy.convo.metrics.ConversationMetrics;
+import com.github.mhewedy.convo.store.SaveContext;
 import com.github.mhewedy.convo.store.StoreRepository;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 
 @Slf4j
 public class ConversationRepository {
@@ -14,29 +22,91 @@ public class ConversationRepository {
     private final IdGenerator idGenerator;
     private final Nullifier nullifier;
     private final StoreRepository storeRepository;
+    private final RequestScope requestScope;
+    private final boolean optimisticLocking;
+    private final ConversationMetrics metrics;
 
     public ConversationRepository(IdGenerator idGenerator, ObjectMapper objectMapper, StoreRepository storeRepository) {
+        this(idGenerator, objectMapper, storeRepository, RequestScope.NONE);
+    }
+
+    public ConversationRepository(IdGenerator idGenerator, ObjectMapper objectMapper, StoreRepository storeRepository,
+                                  RequestScope requestScope) {
+        this(idGenerator, objectMapper, storeRepository, requestScope, false);
+    }
+
+    /**
+     * @param optimisticLocking whether the saves are checked against the revision of the stored conversation,
+     *                          see {@link ConversationConflictException}
+     */
+    public ConversationRepository(IdGenerator idGenerator, ObjectMapper objectMapper, StoreRepository storeRepository,
+                                  RequestScope requestScope, boolean optimisticLocking) {
+        this(idGenerator, objectMapper, storeRepository, requestScope, optimisticLocking, ConversationMetrics.NOOP);
+    }
+
+    /**
+     * @param metrics records the duration and outcome of the operations, see
+     *                {@link com.github.mhewedy.convo.metrics.MicrometerConversationMetrics}
+     */
+    public ConversationRepository(IdGenerator idGenerator, ObjectMapper objectMapper, StoreRepository storeRepository,
+                                  RequestScope requestScope, boolean optimisticLocking, ConversationMetrics metrics) {
         this.idGenerator = idGenerator;
         this.storeRepository = storeRepository;
         this.nullifier = new Nullifier(objectMapper, storeRepository);
+        this.requestScope = requestScope;
+        this.optimisticLocking = optimisticLocking;
+        this.metrics = metrics;
     }
 
     /**
      * Saves (Create or Update) the conversation object to the store.
      * The conversation id can be obtained by calling {@link AbstractConversationHolder#id}.
+     * <br/>
+     * If the object was returned by {@link #findById(Object, String, Class)} (or saved before), the updated step
+     * is detected against the state captured at that time, otherwise the stored copy is loaded to detect it.
+     * <br/>
+     * With {@link RequestScope#WRITE_BEHIND}, the write is deferred to the end of the current request.
+     * <br/>
+     * With optimistic locking, the revision of the object is incremented, and the save fails if the conversation
+     * has been saved by another request since the object was loaded.
      *
      * @param ownerId is the object that owns the conversation object, usually the current user id (can be null)
+     * @throws ConversationConflictException in case of a concurrent modification, the revision of the object is
+     *                                       restored on any failure
      */
     public <T extends AbstractConversationHolder> void save(@Nullable Object ownerId, T t) {
         if (t == null) {
             throw new ConversationException("object_is_null");
         }
+        metrics.record("save", t.getClass(), () -> doSave(ownerId, t));
+    }
 
+    private <T extends AbstractConversationHolder> void doSave(@Nullable Object ownerId, T t) {
         setVersionIfNew(t);
         setIdIfNull(t);
         t._ownerId = normalize(ownerId);
-        nullifier.nullifyNextStepsFields(t);
-        storeRepository.save(t);
+        boolean existing = Snapshot.of(t) != null;
+        var nullified = nullifyNextStepsFields(t);
+        long revision = t._revision;
+        var context = new SaveContext(existing, nullified.updatedStep(), nextRevision(t),
+                nullified.previousStepsUnchanged());
+
+        var identityMap = RequestIdentityMap.current(requestScope, storeRepository);
+        if (identityMap != null && requestScope == RequestScope.WRITE_BEHIND) {
+            log.trace("deferring save of conversation with id: {} to the end of the request", t.id);
+            identityMap.addPendingSave(t, context);
+        } else {
+            try {
+                storeRepository.save(t, context);
+            } catch (RuntimeException ex) {
+                t._revision = revision;
+                throw ex;
+            }
+        }
+        nullifier.takeSnapshot(t);
+        if (identityMap != null) {
+            identityMap.put(t);
+        }
     }
 
     /**
@@ -46,12 +116,27 @@ public class ConversationRepository {
      * @throws ConversationException in case no conversation found by the provided id
      */
     public <T extends AbstractConversationHolder> T findById(@Nullable Object ownerId, String id, Class<T> clazz) {
-        T object = storeRepository.findById(id, clazz)
+        return metrics.record("findById", clazz, () -> doFindById(ownerId, id, clazz));
+    }
+
+    private <T extends AbstractConversationHolder> T doFindById(@Nullable Object ownerId, String id, Class<T> clazz) {
+        var identityMap = RequestIdentityMap.current(requestScope, storeRepository);
+        var cached = identityMap == null ? null : identityMap.get(id, clazz);
+        if (cached != null) {
+            log.trace("conversation with id: {} found in the current request", id);
+        }
+        T object = Optional.ofNullable(cached).or(() -> storeRepository.findById(id, clazz))
                 .filter(it -> ownerId == null || normalize(ownerId).equals(it._ownerId))
                 .orElseThrow(() -> new ConversationException("conversation with specified id does not exist for the given owner",
                         Map.of("conversationId", id, "ownerId", ownerId + ""))
                 );
-        validateVersionIfRequired(object);
+        if (cached == null) {
+            validateVersion(object);
+            nullifier.takeSnapshot(object);
+            if (identityMap != null) {
+                identityMap.put(object);
+            }
+        }
         return object;
     }
 
@@ -61,26 +146,286 @@ public class ConversationRepository {
      * @param ownerId is the object that owns the conversation object, usually the current user id
      */
     public <T extends AbstractConversationHolder> void delete(@Nullable Object ownerId, String id, Class<T> clazz) {
-        var objectToRemove = storeRepository.findById(id, clazz);
+        metrics.record("delete", clazz, () -> doDelete(ownerId, id, clazz));
+    }
+
+    private <T extends AbstractConversationHolder> void doDelete(@Nullable Object ownerId, String id, Class<T> clazz) {
+        var identityMap = RequestIdentityMap.current(requestScope, storeRepository);
+        var objectToRemove = Optional.ofNullable(identityMap == null ? null : identityMap.get(id, clazz))
+                .or(() -> storeRepository.findById(id, clazz));
         objectToRemove.ifPresent(it -> {
             if (ownerId != null && !normalize(ownerId).equals(it._ownerId)) {
                 throw new ConversationException("conversation with specified id does not exist for the given owner",
                         Map.of("conversationId", id, "ownerId", ownerId));
             }
+            if (identityMap != null) {
+                identityMap.remove(it);
+            }
             storeRepository.delete(it);
         });
     }
 
-    private <T extends AbstractConversationHolder> void setVersionIfNew(T t) {
-        if (t.id == null && t.getClass().isAnnotationPresent(Version.class)) {
-            t._version = t.getClass().getAnnotation(Version.class).value();
+    /**
+     * Writes the saves deferred in the current request by {@link RequestScope#WRITE_BEHIND},
+     * so failures can be reported to the client, otherwise they are written when the request completes.
+     */
+    public void flush() {
+        var identityMap = RequestIdentityMap.current(requestScope, storeRepository);
+        if (identityMap != null) {
+            identityMap.flush(storeRepository);
+        }
+    }
+
+    /**
+     * Saves (Create or Update) all the conversation objects in fewer round trips to the store, the same way as
+     * {@link #save(Object, AbstractConversationHolder)}, except that the writes are never deferred, and the
+     * new objects always get a generated id (instead of the id of the current request).
+     * <br/>
+     * With optimistic locking, the objects are saved one by one, and the ones saved before a conflict stay saved.
+     *
+     * @param ownerId is the object that owns the conversation objects, usually the current user id (can be null)
+     * @throws ConversationConflictException in case of a concurrent modification
+     */
+    public <T extends AbstractConversationHolder> void saveAll(@Nullable Object ownerId, Collection<T> ts) {
+        if (ts == null || ts.stream().anyMatch(Objects::isNull)) {
+            throw new ConversationException("object_is_null");
+        }
+        metrics.record("saveAll", classOf(ts), () -> doSaveAll(ownerId, ts));
+    }
+
+    private <T extends AbstractConversationHolder> void doSaveAll(@Nullable Object ownerId, Collection<T> ts) {
+        for (T t : ts) {
+            setVersionIfNew(t);
+            if (t.id == null) {
+                t.id = idGenerator.generateNewConversationId();
+            }
+            t._ownerId = normalize(ownerId);
+        }
+        attachStoredSnapshots(ts);
+        if (optimisticLocking) {
+            for (T t : ts) {
+                int updatedStep = nullifyNextStepsFields(t).updatedStep();
+                long revision = t._revision;
+                try {
+                    storeRepository.save(t, new SaveContext(false, updatedStep, nextRevision(t)));
+                } catch (RuntimeException ex) {
+                    t._revision = revision;
+                    throw ex;
+                }
+            }
+        } else {
+            ts.forEach(this::nullifyNextStepsFields);
+            storeRepository.saveAll(ts);
+        }
+
+        var identityMap = RequestIdentityMap.current(requestScope, storeRepository);
+        for (T t : ts) {
+            nullifier.takeSnapshot(t);
+            if (identityMap != null) {
+                identityMap.remove(t);
+                identityMap.put(t);
+            }
+        }
+    }
+
+    /**
+     * Return the conversation objects found in the store, in the order of the provided ids, in fewer round trips
+     * than calling {@link #findById(Object, String, Class)} for each id.
+     * <br/>
+     * Unlike {@link #findById(Object, String, Class)}, the ids not found for the given owner are skipped.
+     *
+     * @param ownerId is the object that owns the conversation objects, usually the current user id (can be null)
+     * @throws ConversationException in case the version of any of the conversations is not compatible
+     */
+    public <T extends AbstractConversationHolder> List<T> findAllById(@Nullable Object ownerId, Collection<String> ids,
+                                                                      Class<T> clazz) {
+        return metrics.record("findAllById", clazz, () -> doFindAllById(ownerId, ids, clazz));
+    }
+
+    private <T extends AbstractConversationHolder> List<T> doFindAllById(@Nullable Object ownerId,
+                                                                         Collection<String> ids, Class<T> clazz) {
+        var identityMap = RequestIdentityMap.current(requestScope, storeRepository);
+        var found = findAllInRequestOrStore(identityMap, ids, clazz);
+
+        List<T> ret = new ArrayList<>(found.size());
+        for (var id : ids) {
+            var object = found.get(id);
+            if (object == null || (ownerId != null && !normalize(ownerId).equals(object._ownerId))) {
+                continue;
+            }
+            if (identityMap == null || identityMap.get(id, clazz) != object) {
+                validateVersion(object);
+                nullifier.takeSnapshot(object);
+                if (identityMap != null) {
+                    identityMap.put(object);
+                }
+            }
+            ret.add(object);
+        }
+        return ret;
+    }
+
+    /**
+     * Removes the conversation objects from the store, in fewer round trips than calling
+     * {@link #delete(Object, String, Class)} for each id.
+     *
+     * @param ownerId is the object that owns the conversation objects, usually the current user id
+     * @throws ConversationException in case any of the conversations belongs to another owner, nothing is removed then
+     */
+    public <T extends AbstractConversationHolder> void deleteAll(@Nullable Object ownerId, Collection<String> ids,
+                                                                 Class<T> clazz) {
+        metrics.record("deleteAll", clazz, () -> doDeleteAll(ownerId, ids, clazz));
+    }
+
+    private <T extends AbstractConversationHolder> void doDeleteAll(@Nullable Object ownerId, Collection<String> ids,
+                                                                    Class<T> clazz) {
+        var identityMap = RequestIdentityMap.current(requestScope, storeRepository);
+        var objectsToRemove = findAllInRequestOrStore(identityMap, ids, clazz).values();
+
+        for (var it : objectsToRemove) {
+            if (ownerId != null && !normalize(ownerId).equals(it._ownerId)) {
+                throw new ConversationException("conversation with specified id does not exist for the given owner",
+                        Map.of("conversationId", it.id, "ownerId", ownerId));
+            }
+        }
+        if (identityMap != null) {
+            objectsToRemove.forEach(identityMap::remove);
+        }
+        storeRepository.deleteAll(objectsToRemove);
+    }
+
+    /**
+     * Return all the conversation objects of the given class that belong to the owner, using the owner index of the
+     * store ({@code convo.owner-index}).
+     * <br/>
+     * The saves deferred by the request scope {@code WRITE_BEHIND} are found only once written.
+     *
+     * @param ownerId is the object that owns the conversation objects, usually the current user id
+     * @throws UnsupportedOperationException in case the owner index is not enabled
+     */
+    public <T extends AbstractConversationHolder> List<T> findAllByOwner(Object ownerId, Class<T> clazz) {
+        if (ownerId == null) {
+            throw new ConversationException("owner_id_is_null");
+        }
+        return metrics.record("findAllByOwner", clazz, () -> doFindAllByOwner(ownerId, clazz));
+    }
+
+    private <T extends AbstractConversationHolder> List<T> doFindAllByOwner(Object ownerId, Class<T> clazz) {
+        return doFindAllById(ownerId, storeRepository.findIdsByOwner(normalize(ownerId), clazz), clazz);
+    }
+
+    /**
+     * Removes all the conversation objects of the given class that belong to the owner, for example to revoke the
+     * conversations of a user on logout.
+     *
+     * @param ownerId is the object that owns the conversation objects, usually the current user id
+     * @throws UnsupportedOperationException in case the owner index is not enabled
+     * @see #findAllByOwner(Object, Class)
+     */
+    public <T extends AbstractConversationHolder> void deleteAllByOwner(Object ownerId, Class<T> clazz) {
+        if (ownerId == null) {
+            throw new ConversationException("owner_id_is_null");
+        }
+        metrics.record("deleteAllByOwner", clazz, () -> {
+            var objectsToRemove = doFindAllByOwner(ownerId, clazz);
+            var identityMap = RequestIdentityMap.current(requestScope, storeRepository);
+            if (identityMap != null) {
+                objectsToRemove.forEach(identityMap::remove);
+            }
+            storeRepository.deleteAll(objectsToRemove);
+        });
+    }
+
+    /**
+     * @return the objects by id, from the identity map of the current request if any, otherwise from the store
+     */
+    private <T extends AbstractConversationHolder> Map<String, T> findAllInRequestOrStore(
+            @Nullable RequestIdentityMap identityMap, Collection<String> ids, Class<T> clazz) {
+        Map<String, T> found = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (var id : ids) {
+            var cached = identityMap == null ? null : identityMap.get(id, clazz);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            storeRepository.findAllById(missing, clazz).forEach(it -> found.put(it.id, it));
+        }
+        return found;
+    }
+
+    /**
+     * Loads the stored copies of the objects without snapshot in one call per class, to find their updated step.
+     */
+    private <T extends AbstractConversationHolder> void attachStoredSnapshots(Collection<T> ts) {
+        Map<Class<T>, Map<String, T>> withoutSnapshot = new HashMap<>();
+        for (T t : ts) {
+            if (Snapshot.of(t) == null) {
+                @SuppressWarnings("unchecked")
+                var clazz = (Class<T>) t.getClass();
+                withoutSnapshot.computeIfAbsent(clazz, it -> new HashMap<>()).put(t.id, t);
+            }
+        }
+        withoutSnapshot.forEach((clazz, objects) -> {
+            Map<String, T> stored = new HashMap<>();
+            storeRepository.findAllById(objects.keySet(), clazz).forEach(it -> stored.put(it.id, it));
+            objects.forEach((id, t) -> nullifier.attachSnapshot(t, stored.get(id)));
+        });
+    }
+
+    private <T extends AbstractConversationHolder> Nullifier.Result nullifyNextStepsFields(T t) {
+        var nullified = metrics.recordPhase("nullify", t.getClass(), () -> nullifier.nullifyNextStepsFields(t));
+        int updatedStep = nullified.updatedStep();
+        if (updatedStep > 0) {
+            metrics.recordUpdatedStep(t.getClass(), updatedStep,
+                    ConversationMetadata.of(t).getStepCount() - updatedStep);
+        }
+        return nullified;
+    }
+
+    private <T extends AbstractConversationHolder> void validateVersion(T t) {
+        try {
+            validateVersionIfRequired(t);
+        } catch (ConversationException ex) {
+            metrics.recordVersionMismatch(t.getClass());
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the class of the objects, or {@link AbstractConversationHolder} if they are of different classes
+     */
+    private static Class<?> classOf(Collection<? extends AbstractConversationHolder> ts) {
+        var classes = ts.stream().map(Object::getClass).distinct().limit(2).toList();
+        return classes.size() == 1 ? classes.get(0) : AbstractConversationHolder.class;
+    }
+
+    /**
+     * Increments the revision of the object when optimistic locking is enabled.
+     *
+     * @return the revision expected in the store, null if not checked
+     */
+    private <T extends AbstractConversationHolder> @Nullable Long nextRevision(T t) {
+        if (!optimisticLocking) {
+            return null;
+        }
+        return t._revision++;
+    }
+
+    static <T extends AbstractConversationHolder> void setVersionIfNew(T t) {
+        String version = ConversationMetadata.of(t).getVersion();
+        if (t.id == null && version != null) {
+            t._version = version;
             log.debug("creating conversation of type {} with version: {}", t.getClass().getSimpleName(), t._version);
         }
     }
 
-    private <T extends AbstractConversationHolder> void validateVersionIfRequired(T t) {
-        if (t.getClass().isAnnotationPresent(Version.class)) {
-            String currentVersion = t.getClass().getAnnotation(Version.class).value();
+    static <T extends AbstractConversationHolder> void validateVersionIfRequired(T t) {
+        String currentVersion = ConversationMetadata.of(t).getVersion();
+        if (currentVersion != null) {
             if (!currentVersion.equalsIgnoreCase(t._version)) {
                 throw new ConversationException("invalid_conversation_version", "conversationId", t.id);
             }
@@ -108,7 +453,7 @@ public class ConversationRepository {
         }
     }
 
-    private String normalize(@Nullable Object id) {
+    static String normalize(@Nullable Object id) {
         return id == null ? null : id.toString();
     }
 }
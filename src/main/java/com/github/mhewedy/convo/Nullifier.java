@@ -1,100 +1,193 @@
 package com.github.mhewedy.convo;
 
 import tools.jackson.databind.ObjectMapper;
-import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.ConversationMetadata.StepField;
 import com.github.mhewedy.convo.store.StoreRepository;
 import lombok.extern.slf4j.Slf4j;
 
-import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
 
-import static com.github.mhewedy.convo.FieldIterator.onEachField;
-
 @Slf4j
 class Nullifier {
 
-    private final ObjectMapper objectMapper;
+    private final StepComparator stepComparator;
     private final StoreRepository storeRepository;
 
     public Nullifier(ObjectMapper objectMapper, StoreRepository storeRepository) {
-        this.objectMapper = objectMapper;
+        this.stepComparator = new StepComparator(objectMapper);
         this.storeRepository = storeRepository;
     }
 
-    <T extends AbstractConversationHolder> void nullifyNextStepsFields(T fromUser) {
+    /**
+     * Without a store, the stored copy is never loaded: the snapshot should be attached by
+     * {@link #attachSnapshot(AbstractConversationHolder, AbstractConversationHolder)} before nullifying
+     * objects that have neither a snapshot nor a step marked as updated.
+     */
+    Nullifier(ObjectMapper objectMapper) {
+        this(objectMapper, null);
+    }
+
+    /**
+     * @return the updated step, 0 if no step is updated, and whether the steps before it are unchanged
+     */
+    <T extends AbstractConversationHolder> Result nullifyNextStepsFields(T fromUser) {
+
+        var metadata = ConversationMetadata.of(fromUser);
+        metadata.validateSteps();
 
-        validateSteps(fromUser);
-        final List<Field> updatedFields = getUpdatedFields(fromUser);
+        if (fromUser._updatedSteps != null && !fromUser._updatedSteps.isEmpty()) {
+            int markedStep = getMarkedStep(fromUser, metadata);
+            nullifyNextSteps(fromUser, metadata, markedStep);
+            return new Result(markedStep, isUnchangedBefore(fromUser, metadata, markedStep));
+        }
+
+        var stored = getStoredValues(fromUser, metadata);
+        final List<StepField> updatedFields = getUpdatedFields(fromUser, metadata, stored);
 
         List<Integer> updatedSteps = updatedFields.stream()
-                .map(it -> it.getAnnotation(Step.class))
-                .map(Step::value)
+                .map(it -> it.step)
                 .distinct().toList();
 
         if (updatedSteps.size() > 1) {
             throw new RuntimeException("you can not update more than one step at atime. " + fromUser +
                     ", you try to update fields: " + updatedFields);
         }
-        if (!updatedSteps.isEmpty())
-            nullifyNextSteps(fromUser, updatedSteps.get(0));
+        int updatedStep = updatedSteps.isEmpty() ? 0 : updatedSteps.get(0);
+        // the other changed fields are updated fields, only the cleared ones are left to check
+        boolean unchanged = stored != null && !isClearedBefore(fromUser, metadata, stored, updatedStep);
+        if (updatedStep > 0) {
+            nullifyNextSteps(fromUser, metadata, updatedStep);
+        }
+        return new Result(updatedStep, unchanged);
     }
 
-    private <T extends AbstractConversationHolder> void validateSteps(T fromUser) {
-
-        var steps = onEachField(fromUser, field -> {
-            if (field.getAnnotation(Step.class) == null) {
-                throw new RuntimeException("all conversation fields should have @Step annotation: " +
-                        fromUser + ", field: " + field);
-            }
-            return field.getAnnotation(Step.class).value();
-        });
-        if (steps.isEmpty()) return;
+    /**
+     * Attaches to the object the current values of its step fields, to diff against on the next save
+     * instead of loading the stored copy again, and clears the steps marked as updated.
+     */
+    <T extends AbstractConversationHolder> void takeSnapshot(T t) {
+        var metadata = ConversationMetadata.of(t);
+        t._snapshot = new Snapshot(t.id, metadata.isTrackUpdatedSteps() ? null : captureValues(t, metadata));
+        t._updatedSteps = null;
+    }
 
-        List<Integer> sortedUniqueSteps = steps.stream().sorted().distinct().toList();
+    /**
+     * Attaches the step values of the stored copy as the snapshot (all null if not stored),
+     * so the next save doesn't load the object from the store to find the updated step.
+     */
+    <T extends AbstractConversationHolder> void attachSnapshot(T t, T stored) {
+        var metadata = ConversationMetadata.of(t);
+        t._snapshot = new Snapshot(t.id, stored != null ?
+                captureValues(stored, metadata) : new Object[metadata.getFields().size()]);
+    }
 
-        if (sortedUniqueSteps.get(0) < 1) {
-            throw new RuntimeException("steps should start with 1");
-        }
-        if (sortedUniqueSteps.size() < steps.size()) {
-            throw new RuntimeException("no duplicate steps allowed");
+    private <T extends AbstractConversationHolder> int getMarkedStep(T fromUser, ConversationMetadata metadata) {
+        var markedSteps = fromUser._updatedSteps;
+        if (markedSteps.cardinality() > 1) {
+            throw new RuntimeException("you can not update more than one step at atime. " + fromUser +
+                    ", you try to update steps: " + markedSteps);
         }
-        Integer latestStep = sortedUniqueSteps.get(sortedUniqueSteps.size() - 1);
-        if (latestStep != sortedUniqueSteps.size()) {
-            throw new RuntimeException("no gaps allowed in step numbers");
+        int step = markedSteps.nextSetBit(0);
+        if (step > metadata.getStepCount()) {
+            throw new RuntimeException("step marked as updated does not exist: " + step + ", in object: " + fromUser);
         }
+        return step;
     }
 
-    private <T extends AbstractConversationHolder> List<Field> getUpdatedFields(T fromUser) {
-        var fromRedis = storeRepository.findById(fromUser.id, fromUser.getClass()).orElse(null);
-
-        return onEachField(fromUser, field -> {
+    private <T extends AbstractConversationHolder> List<StepField> getUpdatedFields(T fromUser,
+                                                                                  ConversationMetadata metadata,
+                                                                                  Object[] stored) {
+        var fields = metadata.getFields();
 
+        List<StepField> ret = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            var field = fields.get(i);
             var valueFromUser = field.get(fromUser);
-            if (fromRedis == null) {
+            if (stored == null) {
                 if (valueFromUser != null) {
-                    return field;
+                    ret.add(field);
                 }
             } else {
-                if (valueFromUser != null && !asJson(valueFromUser).equals(asJson(field.get(fromRedis)))) {
-                    return field;
+                if (valueFromUser != null && stepComparator.isChanged(field, valueFromUser, stored[i])) {
+                    ret.add(field);
                 }
             }
-            return null;
-        });
+        }
+        return ret;
     }
 
-    private <T extends AbstractConversationHolder> void nullifyNextSteps(T fromUser, int currentStep) {
-        onEachField(fromUser, field -> {
-            int step = field.getAnnotation(Step.class).value();
-            if (step > currentStep && field.get(fromUser) != null) {
+    /**
+     * @return true if the object has a snapshot with values, and the steps before {@code step} hold the values of
+     * the snapshot
+     */
+    private <T extends AbstractConversationHolder> boolean isUnchangedBefore(T t, ConversationMetadata metadata,
+                                                                           int step) {
+        var snapshot = Snapshot.of(t);
+        if (snapshot == null || snapshot.values == null) {
+            return false;
+        }
+        var fields = metadata.getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            var field = fields.get(i);
+            if (field.step < step && stepComparator.isChanged(field, field.get(t), snapshot.values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a field of a step before {@code step} (of any step if 0) is set to null by the user
+     */
+    private <T extends AbstractConversationHolder> boolean isClearedBefore(T t, ConversationMetadata metadata,
+                                                                         Object[] stored, int step) {
+        var fields = metadata.getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            var field = fields.get(i);
+            if ((step == 0 || field.step < step) && stored[i] != null && field.get(t) == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T extends AbstractConversationHolder> Object[] getStoredValues(T fromUser, ConversationMetadata metadata) {
+        var snapshot = Snapshot.of(fromUser);
+        if (snapshot != null && snapshot.values != null) {
+            return snapshot.values;
+        }
+        log.trace("no snapshot attached to conversation: {}, loading it from the store", fromUser.id);
+        return storeRepository.findById(fromUser.id, fromUser.getClass())
+                .map(it -> captureValues(it, metadata))
+                .orElse(null);
+    }
+
+    private <T extends AbstractConversationHolder> Object[] captureValues(T t, ConversationMetadata metadata) {
+        var fields = metadata.getFields();
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            var field = fields.get(i);
+            values[i] = stepComparator.capture(field, field.get(t));
+        }
+        return values;
+    }
+
+    private <T extends AbstractConversationHolder> void nullifyNextSteps(T fromUser, ConversationMetadata metadata,
+                                                                         int currentStep) {
+        for (int step = currentStep + 1; step <= metadata.getStepCount(); step++) {
+            StepField field = metadata.getField(step);
+            if (field.get(fromUser) != null) {
                 log.warn("setting null for: {} in object: {}", field.getName(), fromUser);
                 field.set(fromUser, null);
             }
-        });
+        }
     }
 
-    private <T> String asJson(T t) {
-        if (t == null) return "";
-        return objectMapper.writeValueAsString(t);
+    /**
+     * @param updatedStep            the updated step, 0 if no step is updated
+     * @param previousStepsUnchanged see {@link com.github.mhewedy.convo.store.SaveContext#previousStepsUnchanged()}
+     */
+    record Result(int updatedStep, boolean previousStepsUnchanged) {
     }
 }
@@ -0,0 +1,43 @@
+package com.github.mhewedy.convo;
+
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.github.mhewedy.convo.Constants.X_CONVERSATION_ID;
+
+/**
+ * Reactive counterpart of {@link ConversationFilter}, carries the {@link Constants#X_CONVERSATION_ID} request header
+ * in the Reactor context of the request, so the conversations created by {@link ReactiveConversationRepository}
+ * during the request get its id.
+ */
+public class ReactiveConversationFilter implements WebFilter {
+
+    private static final Class<ReactiveConversationFilter> CONTEXT_KEY = ReactiveConversationFilter.class;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String conversationId = exchange.getRequest().getHeaders().getFirst(X_CONVERSATION_ID);
+        return chain.filter(exchange)
+                .contextWrite(ctx -> ctx.put(CONTEXT_KEY, new AtomicReference<>(conversationId)));
+    }
+
+    /**
+     * @return the conversation id of the current request, empty if none or outside of a request
+     */
+    public static Mono<String> getCurrentConversationId() {
+        return Mono.deferContextual(ctx -> Mono.justOrEmpty(currentConversationId(ctx)).mapNotNull(AtomicReference::get));
+    }
+
+    /**
+     * @return the mutable conversation id of the current request, null outside of a request
+     */
+    @SuppressWarnings("unchecked")
+    static AtomicReference<String> currentConversationId(ContextView ctx) {
+        return (AtomicReference<String>) ctx.getOrDefault(CONTEXT_KEY, null);
+    }
+}
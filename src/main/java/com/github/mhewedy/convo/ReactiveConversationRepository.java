@@ -0,0 +1,149 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.store.ReactiveStoreRepository;
+import com.github.mhewedy.convo.store.SaveContext;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.Nullable;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static com.github.mhewedy.convo.ConversationRepository.normalize;
+import static com.github.mhewedy.convo.ConversationRepository.setVersionIfNew;
+import static com.github.mhewedy.convo.ConversationRepository.validateVersionIfRequired;
+
+/**
+ * Non-blocking counterpart of {@link ConversationRepository} for WebFlux applications, nothing is read or written
+ * until the returned {@link Mono} is subscribed.
+ * <p>
+ * The conversation id of the current request is carried in the Reactor context by {@link ReactiveConversationFilter}.
+ * The request scope ({@code convo.request-scope}), the local cache ({@code convo.cache.enabled}) and optimistic locking
+ * ({@code convo.optimistic-locking}) are not supported.
+ */
+@Slf4j
+public class ReactiveConversationRepository {
+
+    private final IdGenerator idGenerator;
+    private final Nullifier nullifier;
+    private final ReactiveStoreRepository storeRepository;
+
+    public ReactiveConversationRepository(IdGenerator idGenerator, ObjectMapper objectMapper,
+                                          ReactiveStoreRepository storeRepository) {
+        this.idGenerator = idGenerator;
+        this.storeRepository = storeRepository;
+        this.nullifier = new Nullifier(objectMapper);
+    }
+
+    /**
+     * Saves (Create or Update) the conversation object to the store, see
+     * {@link ConversationRepository#save(Object, AbstractConversationHolder)}.
+     *
+     * @param ownerId is the object that owns the conversation object, usually the current user id (can be null)
+     * @return the saved object, its id can be obtained by calling {@link AbstractConversationHolder#id}
+     */
+    public <T extends AbstractConversationHolder> Mono<T> save(@Nullable Object ownerId, T t) {
+        if (t == null) {
+            return Mono.error(new ConversationException("object_is_null"));
+        }
+        return Mono.deferContextual(ctx -> {
+                    setVersionIfNew(t);
+                    setIdIfNull(t, ctx);
+                    t._ownerId = normalize(ownerId);
+                    return attachStoredSnapshotIfRequired(t);
+                })
+                .flatMap(existing -> {
+                    var nullified = nullifier.nullifyNextStepsFields(t);
+                    return storeRepository.save(t, new SaveContext(existing, nullified.updatedStep(), null,
+                            nullified.previousStepsUnchanged()));
+                })
+                .then(Mono.fromSupplier(() -> {
+                    nullifier.takeSnapshot(t);
+                    return t;
+                }));
+    }
+
+    /**
+     * Return the conversation object from the store.
+     *
+     * @param ownerId is the object that owns the conversation object, usually the current user id (can be null)
+     * @return the conversation, or a {@link ConversationException} error in case no conversation found by the
+     * provided id
+     */
+    public <T extends AbstractConversationHolder> Mono<T> findById(@Nullable Object ownerId, String id,
+                                                                   Class<T> clazz) {
+        return storeRepository.findById(id, clazz)
+                .filter(it -> ownerId == null || normalize(ownerId).equals(it._ownerId))
+                .switchIfEmpty(Mono.error(() -> new ConversationException(
+                        "conversation with specified id does not exist for the given owner",
+                        Map.of("conversationId", id, "ownerId", ownerId + ""))))
+                .doOnNext(it -> {
+                    validateVersionIfRequired(it);
+                    nullifier.takeSnapshot(it);
+                });
+    }
+
+    /**
+     * Removes the conversation object from the store.
+     *
+     * @param ownerId is the object that owns the conversation object, usually the current user id
+     */
+    public <T extends AbstractConversationHolder> Mono<Void> delete(@Nullable Object ownerId, String id,
+                                                                    Class<T> clazz) {
+        return storeRepository.findById(id, clazz)
+                .flatMap(it -> {
+                    if (ownerId != null && !normalize(ownerId).equals(it._ownerId)) {
+                        return Mono.error(new ConversationException(
+                                "conversation with specified id does not exist for the given owner",
+                                Map.of("conversationId", id, "ownerId", ownerId)));
+                    }
+                    return storeRepository.delete(it);
+                });
+    }
+
+    /**
+     * Loads the stored copy as the snapshot when the updated step can not be found otherwise, since the
+     * {@link Nullifier} can't load it without blocking.
+     *
+     * @return whether the conversation is known to exist in the store
+     */
+    private <T extends AbstractConversationHolder> Mono<Boolean> attachStoredSnapshotIfRequired(T t) {
+        var snapshot = Snapshot.of(t);
+        boolean stepMarked = t._updatedSteps != null && !t._updatedSteps.isEmpty();
+        if (stepMarked || (snapshot != null && snapshot.values != null)) {
+            return Mono.just(snapshot != null);
+        }
+        log.trace("no snapshot attached to conversation: {}, loading it from the store", t.id);
+        @SuppressWarnings("unchecked")
+        var clazz = (Class<T>) t.getClass();
+        return storeRepository.findById(t.id, clazz)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .map(stored -> {
+                    nullifier.attachSnapshot(t, stored.orElse(null));
+                    return snapshot != null || stored.isPresent();
+                });
+    }
+
+    /**
+     * Same as {@link ConversationRepository}, using the conversation id of the current request if any
+     * (see {@link ReactiveConversationFilter}), otherwise a new id that is set as the id of the current request.
+     */
+    private <T extends AbstractConversationHolder> void setIdIfNull(T t, ContextView ctx) {
+        if (t.id == null) {
+            var currentId = ReactiveConversationFilter.currentConversationId(ctx);
+            if (currentId != null && currentId.get() != null) {
+                t.id = currentId.get();
+            } else {
+                var newId = idGenerator.generateNewConversationId();
+                if (currentId != null) {
+                    currentId.set(newId);
+                }
+                t.id = newId;
+            }
+            log.debug("setting conversation id with value: {}, type: {}", t.id, t.getClass().getSimpleName());
+        }
+    }
+}
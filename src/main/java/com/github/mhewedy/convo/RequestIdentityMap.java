@@ -0,0 +1,114 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.store.SaveContext;
+import com.github.mhewedy.convo.store.StoreRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.Nullable;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The conversations read or saved in the current request, kept as a request attribute,
+ * with the saves not yet written to the store in {@link RequestScope#WRITE_BEHIND} mode.
+ */
+@Slf4j
+final class RequestIdentityMap {
+
+    private static final String ATTRIBUTE = RequestIdentityMap.class.getName();
+
+    private final Map<String, AbstractConversationHolder> objects = new HashMap<>();
+    private final Map<String, PendingSave> pendingSaves = new LinkedHashMap<>();
+
+    /**
+     * @return the identity map of the current request, or null if not in a request or the scope is {@link RequestScope#NONE}.
+     * In {@link RequestScope#WRITE_BEHIND} mode, the pending saves are flushed when the request completes.
+     */
+    static @Nullable RequestIdentityMap current(RequestScope scope, StoreRepository storeRepository) {
+        if (scope == RequestScope.NONE) {
+            return null;
+        }
+        var attrs = RequestContextHolder.getRequestAttributes();
+        if (attrs == null) {
+            return null;
+        }
+        var identityMap = (RequestIdentityMap) attrs.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (identityMap == null) {
+            identityMap = new RequestIdentityMap();
+            attrs.setAttribute(ATTRIBUTE, identityMap, RequestAttributes.SCOPE_REQUEST);
+            if (scope == RequestScope.WRITE_BEHIND) {
+                var map = identityMap;
+                attrs.registerDestructionCallback(ATTRIBUTE, () -> map.flushOnRequestCompletion(storeRepository),
+                        RequestAttributes.SCOPE_REQUEST);
+            }
+        }
+        return identityMap;
+    }
+
+    <T extends AbstractConversationHolder> @Nullable T get(String id, Class<T> clazz) {
+        var object = objects.get(key(id, clazz));
+        return clazz.isInstance(object) ? clazz.cast(object) : null;
+    }
+
+    void put(AbstractConversationHolder t) {
+        objects.put(key(t.id, t.getClass()), t);
+    }
+
+    void remove(AbstractConversationHolder t) {
+        var key = key(t.id, t.getClass());
+        objects.remove(key);
+        pendingSaves.remove(key);
+    }
+
+    /**
+     * Defers the save, merging it with the pending save of the same conversation if any:
+     * the conversation is existing only if it was existing on the first save, the updated step is the lowest one,
+     * and the previous steps are unchanged only if they were unchanged on both saves.
+     */
+    void addPendingSave(AbstractConversationHolder t, SaveContext context) {
+        pendingSaves.merge(key(t.id, t.getClass()), new PendingSave(t, context), (previous, current) ->
+                new PendingSave(t, new SaveContext(
+                        previous.context.existing() && current.context.existing(),
+                        lowestStep(previous.context.updatedStep(), current.context.updatedStep()),
+                        previous.context.expectedRevision(),
+                        previous.context.previousStepsUnchanged() && current.context.previousStepsUnchanged())));
+    }
+
+    /**
+     * Writes the pending saves in order, a save that fails and the following ones are kept pending.
+     */
+    void flush(StoreRepository storeRepository) {
+        var iterator = pendingSaves.values().iterator();
+        while (iterator.hasNext()) {
+            var save = iterator.next();
+            log.trace("writing deferred save of conversation with id: {}", save.object.id);
+            storeRepository.save(save.object, save.context);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * The response is already written at this point, so failures can only be logged.
+     */
+    private void flushOnRequestCompletion(StoreRepository storeRepository) {
+        try {
+            flush(storeRepository);
+        } catch (RuntimeException ex) {
+            log.error("failed to write deferred saves of conversations: {}", pendingSaves.keySet(), ex);
+        }
+    }
+
+    private static int lowestStep(int a, int b) {
+        return a == 0 ? b : b == 0 ? a : Math.min(a, b);
+    }
+
+    private static String key(String id, Class<?> clazz) {
+        return clazz.getName() + ":" + id;
+    }
+
+    private record PendingSave(AbstractConversationHolder object, SaveContext context) {
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.mhewedy.convo;
+
+/**
+ * How {@link ConversationRepository} shares conversations within the current http request.
+ */
+public enum RequestScope {
+    /**
+     * Each {@code findById} reads the store and returns a new instance, each {@code save} writes to the store.
+     */
+    NONE,
+    /**
+     * Repeated {@code findById} calls in the same request return the same instance, read from the store once.
+     * Writes are done immediately.
+     */
+    IDENTITY_MAP,
+    /**
+     * Same as {@link #IDENTITY_MAP}, and the writes are deferred to the end of the request (or to
+     * {@link ConversationRepository#flush()}), so saving the same conversation multiple times writes it once.
+     */
+    WRITE_BEHIND
+}
@@ -0,0 +1,28 @@
+package com.github.mhewedy.convo;
+
+/**
+ * The step fields of a conversation as they were loaded from (or last written to) the store.
+ * <p>
+ * It is attached to the holder instance, so the next save can find the updated step without reading the store again.
+ */
+final class Snapshot {
+
+    final String id;
+    /**
+     * null when the values are not captured, see {@link com.github.mhewedy.convo.annotations.TrackUpdatedSteps}
+     */
+    final Object[] values;
+
+    Snapshot(String id, Object[] values) {
+        this.id = id;
+        this.values = values;
+    }
+
+    /**
+     * @return the snapshot attached to the object, or null if it has none or it was taken for another conversation id.
+     */
+    static Snapshot of(AbstractConversationHolder t) {
+        var snapshot = t._snapshot;
+        return snapshot != null && snapshot.id.equals(t.id) ? snapshot : null;
+    }
+}
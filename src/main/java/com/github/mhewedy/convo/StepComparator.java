@@ -0,0 +1,95 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.ConversationMetadata.StepField;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Detects whether a step field value has changed compared to a previously captured value.
+ * <p>
+ * Fields of value types (see {@link StepField#comparableByEquals}) are captured as is and compared using equals.
+ * Other fields are captured as serialized json bytes, and compared by streaming the serialization of the current
+ * value against the captured bytes, so no intermediate json is allocated and the comparison stops on the first
+ * different byte.
+ */
+class StepComparator {
+
+    private final ObjectMapper objectMapper;
+
+    StepComparator(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    Object capture(StepField field, Object value) {
+        if (value == null || field.comparableByEquals) {
+            return value;
+        }
+        return objectMapper.writeValueAsBytes(value);
+    }
+
+    boolean isChanged(StepField field, Object value, Object captured) {
+        if (value == null || captured == null) {
+            return value != captured;
+        }
+        if (field.comparableByEquals) {
+            return !value.equals(captured);
+        }
+        var out = new ComparingOutputStream((byte[]) captured);
+        try {
+            objectMapper.writeValue(out, value);
+        } catch (RuntimeException ex) {
+            if (!out.mismatch) throw ex;
+        }
+        return out.mismatch || !out.isFullyMatched();
+    }
+
+    private static final class ComparingOutputStream extends OutputStream {
+
+        private static final MismatchException MISMATCH = new MismatchException();
+
+        private final byte[] expected;
+        private int position;
+        private boolean mismatch;
+
+        private ComparingOutputStream(byte[] expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void write(int b) {
+            if (position >= expected.length || expected[position] != (byte) b) {
+                throw mismatch();
+            }
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (position + len > expected.length ||
+                    Arrays.mismatch(b, off, off + len, expected, position, position + len) != -1) {
+                throw mismatch();
+            }
+            position += len;
+        }
+
+        private boolean isFullyMatched() {
+            return position == expected.length;
+        }
+
+        private MismatchException mismatch() {
+            mismatch = true;
+            return MISMATCH;
+        }
+    }
+
+    /**
+     * Thrown to stop the serialization as soon as the first different byte is written.
+     */
+    private static final class MismatchException extends RuntimeException {
+        private MismatchException() {
+            super("value changed", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.mhewedy.convo.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+
+/**
+ * This annotation is optional. used to mark a conversation whose saves return once the conversation is buffered
+ * in memory, and are written to the store in the background, in batches.
+ * <p>
+ * Consecutive saves of the same conversation are written once, and the buffered conversation is returned when read
+ * on the same node. Buffered saves are written on shutdown, but are lost if the node crashes, so it fits the
+ * intermediate steps of long conversations that can be redone.
+ * When the buffer is full, the conversation is written before the save returns.
+ * <p>
+ * Requires {@code convo.async-save.enabled=true}, otherwise the conversation is written before the save returns.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(value = {TYPE})
+public @interface AsyncSave {
+}
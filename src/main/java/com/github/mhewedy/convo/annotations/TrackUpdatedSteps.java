@@ -0,0 +1,20 @@
+package com.github.mhewedy.convo.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+
+/**
+ * This annotation is optional. used to mark a conversation whose updated steps are always reported explicitly
+ * by calling {@link com.github.mhewedy.convo.AbstractConversationHolder#markStepUpdated(int)} before saving.
+ * <p>
+ * The values of the steps are then not captured when the conversation is loaded, and the save only handles the
+ * marked step instead of comparing all fields with the stored state.
+ * If the conversation is saved without marking any step, the stored state is loaded to find the updated step.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(value = {TYPE})
+public @interface TrackUpdatedSteps {
+}
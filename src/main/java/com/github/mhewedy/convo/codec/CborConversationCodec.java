@@ -0,0 +1,16 @@
+package com.github.mhewedy.convo.codec;
+
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+/**
+ * Binary codec using the CBOR format, requires {@code tools.jackson.dataformat:jackson-dataformat-cbor}.
+ */
+public class CborConversationCodec extends JacksonConversationCodec {
+
+    public CborConversationCodec() {
+        super(CBORMapper.builder()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .build());
+    }
+}
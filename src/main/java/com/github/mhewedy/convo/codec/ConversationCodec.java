@@ -0,0 +1,28 @@
+package com.github.mhewedy.convo.codec;
+
+import java.lang.reflect.Type;
+
+/**
+ * Serialization format used by the stores to persist conversations.
+ * <p>
+ * Selected by the {@code convo.codec} property, or by defining a bean of this type.
+ *
+ * @see JacksonConversationCodec
+ * @see SmileConversationCodec
+ * @see CborConversationCodec
+ */
+public interface ConversationCodec {
+
+    byte[] encode(Object value);
+
+    Object decode(byte[] bytes, Type type);
+
+    default <T> T decode(byte[] bytes, Class<T> clazz) {
+        return clazz.cast(decode(bytes, (Type) clazz));
+    }
+
+    /**
+     * @return true if the encoded value is binary, false if it is utf-8 text and can be stored in a text column.
+     */
+    boolean isBinary();
+}
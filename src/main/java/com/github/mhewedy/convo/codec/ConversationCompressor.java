@@ -0,0 +1,160 @@
+package com.github.mhewedy.convo.codec;
+
+import net.jpountz.lz4.LZ4Factory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the encoded conversations that are larger than a threshold, used by the stores on write,
+ * and decompresses them on read.
+ * <p>
+ * A compressed value starts with a header: {@code 0x00 'C' 'Z'}, the algorithm id and the original size (4 bytes),
+ * followed by the compressed data. Since the output of the codecs never starts with {@code 0x00}, values without
+ * the header are returned as is on read, so compressed and uncompressed values can be mixed (e.g. after enabling
+ * compression, or for values smaller than the threshold). Decompression doesn't depend on the configuration,
+ * compressed values are still readable after disabling compression or changing the algorithm.
+ */
+public class ConversationCompressor {
+
+    private static final byte[] MAGIC = {0x00, 'C', 'Z'};
+    private static final int HEADER_SIZE = MAGIC.length + 1 + Integer.BYTES;
+
+    public enum Algorithm {
+        /**
+         * JDK {@link Deflater}, doesn't require additional dependencies.
+         */
+        DEFLATE('D'),
+        /**
+         * Requires {@code at.yawk.lz4:lz4-java}, faster than deflate with lower compression ratio.
+         */
+        LZ4('L');
+
+        private final byte id;
+
+        Algorithm(char id) {
+            this.id = (byte) id;
+        }
+    }
+
+    private final Algorithm algorithm;
+    private final int threshold;
+
+    /**
+     * @param algorithm the algorithm used to compress, or null to disable compression
+     * @param threshold the minimum size in bytes of the encoded value to compress it
+     */
+    public ConversationCompressor(Algorithm algorithm, int threshold) {
+        this.algorithm = algorithm;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return a compressor that doesn't compress, but still decompresses values compressed before.
+     */
+    public static ConversationCompressor disabled() {
+        return new ConversationCompressor(null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the value compressed with the header, or the value as is if it is smaller than the threshold
+     * or compressing it doesn't reduce its size.
+     */
+    public byte[] compress(byte[] value) {
+        if (algorithm == null || value.length < threshold) {
+            return value;
+        }
+        byte[] compressed = switch (algorithm) {
+            case DEFLATE -> deflate(value);
+            case LZ4 -> Lz4.compress(value);
+        };
+        if (compressed.length + HEADER_SIZE >= value.length) {
+            return value;
+        }
+        return ByteBuffer.allocate(HEADER_SIZE + compressed.length)
+                .put(MAGIC)
+                .put(algorithm.id)
+                .putInt(value.length)
+                .put(compressed)
+                .array();
+    }
+
+    public byte[] decompress(byte[] value) {
+        if (!isCompressed(value)) {
+            return value;
+        }
+        var buffer = ByteBuffer.wrap(value, MAGIC.length, value.length - MAGIC.length);
+        byte algorithmId = buffer.get();
+        int originalSize = buffer.getInt();
+
+        if (algorithmId == Algorithm.DEFLATE.id) {
+            return inflate(value, HEADER_SIZE, originalSize);
+        } else if (algorithmId == Algorithm.LZ4.id) {
+            return Lz4.decompress(value, HEADER_SIZE, originalSize);
+        }
+        throw new IllegalStateException("unknown compression algorithm: " + (char) algorithmId);
+    }
+
+    public static boolean isCompressed(byte[] value) {
+        return value.length >= HEADER_SIZE && value[0] == MAGIC[0] && value[1] == MAGIC[1] && value[2] == MAGIC[2];
+    }
+
+    private static byte[] deflate(byte[] value) {
+        var deflater = new Deflater();
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(value.length / 4);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] value, int offset, int originalSize) {
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(value, offset, value.length - offset);
+            byte[] result = new byte[originalSize];
+            int size = 0;
+            while (size < originalSize && !inflater.finished()) {
+                int n = inflater.inflate(result, size, originalSize - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != originalSize) {
+                throw new IllegalStateException("corrupted compressed value, expected size: " + originalSize +
+                        ", actual size: " + size);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupted compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Kept in a separate class, so lz4 classes are only loaded when the LZ4 algorithm is used.
+     */
+    private static final class Lz4 {
+        private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+        static byte[] compress(byte[] value) {
+            return FACTORY.fastCompressor().compress(value);
+        }
+
+        static byte[] decompress(byte[] value, int offset, int originalSize) {
+            return FACTORY.safeDecompressor().decompress(value, offset, value.length - offset, originalSize);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.mhewedy.convo.codec;
+
+import tools.jackson.databind.ObjectMapper;
+
+import java.lang.reflect.Type;
+
+/**
+ * Codec backed by a Jackson {@link ObjectMapper}, the format depends on the mapper (json for the application mapper).
+ */
+public class JacksonConversationCodec implements ConversationCodec {
+
+    private final ObjectMapper objectMapper;
+    private final boolean binary;
+
+    public JacksonConversationCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.binary = objectMapper.tokenStreamFactory().canHandleBinaryNatively();
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return objectMapper.writeValueAsBytes(value);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, Type type) {
+        return objectMapper.readValue(bytes, objectMapper.constructType(type));
+    }
+
+    @Override
+    public boolean isBinary() {
+        return binary;
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.mhewedy.convo.codec;
+
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.dataformat.smile.SmileMapper;
+
+/**
+ * Binary codec using the Jackson Smile format, requires {@code tools.jackson.dataformat:jackson-dataformat-smile}.
+ */
+public class SmileConversationCodec extends JacksonConversationCodec {
+
+    public SmileConversationCodec() {
+        super(SmileMapper.builder()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .build());
+    }
+}
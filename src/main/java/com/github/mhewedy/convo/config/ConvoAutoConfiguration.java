@@ -4,22 +4,65 @@ import com.github.mhewedy.convo.AbstractConversationHolder;
 import com.github.mhewedy.convo.ConversationFilter;
 import com.github.mhewedy.convo.ConversationRepository;
 import com.github.mhewedy.convo.IdGenerator;
+import com.github.mhewedy.convo.ReactiveConversationFilter;
+import com.github.mhewedy.convo.ReactiveConversationRepository;
+import com.github.mhewedy.convo.codec.CborConversationCodec;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.codec.SmileConversationCodec;
+import com.github.mhewedy.convo.metrics.ConversationMetrics;
+import com.github.mhewedy.convo.metrics.MeteredConversationCodec;
+import com.github.mhewedy.convo.metrics.MeteredStoreRepository;
+import com.github.mhewedy.convo.metrics.MicrometerConversationMetrics;
+import com.github.mhewedy.convo.metrics.ObservationConversationMetrics;
+import com.github.mhewedy.convo.store.AsyncSaveBuffer;
+import com.github.mhewedy.convo.store.AsyncSaveStoreRepository;
+import com.github.mhewedy.convo.store.JdbcDialect;
 import com.github.mhewedy.convo.store.JdbcStoreRepository;
+import com.github.mhewedy.convo.store.R2dbcStoreRepository;
+import com.github.mhewedy.convo.store.ReactiveRedisStoreRepository;
+import com.github.mhewedy.convo.store.ReactiveStoreRepository;
+import com.github.mhewedy.convo.store.RedisHashStoreRepository;
+import com.github.mhewedy.convo.store.RedisKeyStrategy;
 import com.github.mhewedy.convo.store.RedisStoreRepository;
 import com.github.mhewedy.convo.store.StoreRepository;
+import com.github.mhewedy.convo.store.cache.CacheInvalidationBroadcaster;
+import com.github.mhewedy.convo.store.cache.CachingStoreRepository;
+import com.github.mhewedy.convo.store.cache.InProcessCacheInvalidationBroadcaster;
+import com.github.mhewedy.convo.store.cache.RedisCacheInvalidationBroadcaster;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.thread.Threading;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJacksonJsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.transaction.support.TransactionTemplate;
 import tools.jackson.databind.ObjectMapper;
 
@@ -28,24 +71,133 @@ import java.util.concurrent.ScheduledExecutorService;
 
 @Configuration
 @EnableConfigurationProperties(ConvoProperties.class)
+@AutoConfigureAfter(name = {
+        "org.springframework.boot.micrometer.metrics.autoconfigure.CompositeMeterRegistryAutoConfiguration",
+        "org.springframework.boot.micrometer.observation.autoconfigure.ObservationAutoConfiguration"
+})
 public class ConvoAutoConfiguration {
 
     @Bean
+    @ConditionalOnBean(StoreRepository.class)
     public ConversationRepository conversationRepository(IdGenerator idGenerator,
                                                          ObjectMapper objectMapper,
-                                                         StoreRepository storeRepository) {
-        return new ConversationRepository(idGenerator, objectMapper, storeRepository);
+                                                         StoreRepository storeRepository,
+                                                         ConvoProperties properties,
+                                                         ConversationCodec codec,
+                                                         ObjectProvider<AsyncSaveBuffer> asyncSaveBuffer,
+                                                         ObjectProvider<CacheInvalidationBroadcaster> broadcaster,
+                                                         ObjectProvider<ConversationMetrics> metrics) {
+        var conversationMetrics = metrics.getIfAvailable(() -> ConversationMetrics.NOOP);
+        if (conversationMetrics != ConversationMetrics.NOOP) {
+            storeRepository = new MeteredStoreRepository(storeRepository, conversationMetrics);
+        }
+        var buffer = asyncSaveBuffer.getIfAvailable();
+        if (buffer != null) {
+            storeRepository = new AsyncSaveStoreRepository(storeRepository, buffer);
+        }
+        var cache = properties.getCache();
+        if (cache.getEnabled()) {
+            storeRepository = new CachingStoreRepository(storeRepository, codec,
+                    broadcaster.getIfAvailable(InProcessCacheInvalidationBroadcaster::new),
+                    cache.getMaximumSize(), cache.getTimeToLive(), conversationMetrics);
+        }
+        return new ConversationRepository(idGenerator, objectMapper, storeRepository, properties.getRequestScope(),
+                properties.getOptimisticLocking(), conversationMetrics);
+    }
+
+    @Bean
+    @ConditionalOnBean(StoreRepository.class)
+    @ConditionalOnProperty(value = "convo.async-save.enabled", havingValue = "true")
+    public AsyncSaveBuffer conversationAsyncSaveBuffer(StoreRepository storeRepository, ConversationCodec codec,
+                                                       ConvoProperties properties, Environment environment,
+                                                       ObjectProvider<ConversationMetrics> metrics) {
+        // metered as in the conversationRepository, so the flushes are recorded as store.saveAll phases
+        var conversationMetrics = metrics.getIfAvailable(() -> ConversationMetrics.NOOP);
+        if (conversationMetrics != ConversationMetrics.NOOP) {
+            storeRepository = new MeteredStoreRepository(storeRepository, conversationMetrics);
+        }
+        var asyncSave = properties.getAsyncSave();
+        var threadFactory = Threading.VIRTUAL.isActive(environment) ?
+                new VirtualThreadTaskExecutor("convo-async-save-").getVirtualThreadFactory() :
+                new CustomizableThreadFactory("convo-async-save-");
+        return new AsyncSaveBuffer(storeRepository, codec, asyncSave.getCapacity(), asyncSave.getBatchSize(),
+                asyncSave.getFlushInterval(), Executors.newSingleThreadScheduledExecutor(threadFactory));
     }
 
     @Bean
-    public FilterRegistrationBean<ConversationFilter> conversationFilter() {
-        FilterRegistrationBean<ConversationFilter> registrationBean = new FilterRegistrationBean<>();
+    @ConditionalOnMissingBean
+    public ConversationCodec conversationCodec(ConvoProperties properties, ObjectMapper objectMapper) {
+        return switch (properties.getCodec()) {
+            case JSON -> new JacksonConversationCodec(objectMapper);
+            case SMILE -> new SmileConversationCodec();
+            case CBOR -> new CborConversationCodec();
+        };
+    }
 
-        registrationBean.setFilter(new ConversationFilter());
-        registrationBean.addUrlPatterns("/*");
-        registrationBean.setOrder(1);
+    @Bean
+    @ConditionalOnMissingBean
+    public ConversationCompressor conversationCompressor(ConvoProperties properties) {
+        var compression = properties.getCompression();
+        if (!compression.getEnabled()) {
+            return ConversationCompressor.disabled();
+        }
+        return new ConversationCompressor(compression.getAlgorithm(), (int) compression.getThreshold().toBytes());
+    }
 
-        return registrationBean;
+    /**
+     * Records the payload sizes of the conversations written and read by the store, not of the local copies kept by
+     * the cache or the async save buffer. Not used by the partial writes store, which encodes each step separately.
+     */
+    private static ConversationCodec metered(ConversationCodec codec, ObjectProvider<ConversationMetrics> metrics) {
+        var it = metrics.getIfAvailable();
+        return it == null ? codec : new MeteredConversationCodec(codec, it);
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    public static class MetricsConfig {
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnBean(MeterRegistry.class)
+        public ConversationMetrics conversationMetrics(MeterRegistry meterRegistry, ConvoProperties properties) {
+            return new MicrometerConversationMetrics(meterRegistry, properties.getStore().name().toLowerCase());
+        }
+    }
+
+    @Configuration
+    public static class ObservationConfig {
+
+        /**
+         * Wraps the {@code conversationMetrics} bean, if any, so the operations are observed in addition to being
+         * metered.
+         */
+        @Bean
+        @Primary
+        @ConditionalOnMissingBean(ObservationConversationMetrics.class)
+        @ConditionalOnBean(ObservationRegistry.class)
+        public ObservationConversationMetrics conversationObservationMetrics(
+                ObservationRegistry observationRegistry,
+                @Qualifier("conversationMetrics") ObjectProvider<ConversationMetrics> metrics) {
+            return new ObservationConversationMetrics(observationRegistry,
+                    metrics.getIfAvailable(() -> ConversationMetrics.NOOP));
+        }
+    }
+
+    @Configuration
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public static class ServletConfig {
+
+        @Bean
+        public FilterRegistrationBean<ConversationFilter> conversationFilter() {
+            FilterRegistrationBean<ConversationFilter> registrationBean = new FilterRegistrationBean<>();
+
+            registrationBean.setFilter(new ConversationFilter());
+            registrationBean.addUrlPatterns("/*");
+            registrationBean.setOrder(1);
+
+            return registrationBean;
+        }
     }
 
 
@@ -55,6 +207,16 @@ public class ConvoAutoConfiguration {
 
         @Bean
         @ConditionalOnMissingBean
+        public RedisKeyStrategy conversationRedisKeyStrategy(ConvoProperties properties) {
+            var key = properties.getRedis().getKey();
+            return RedisKeyStrategy.of(key.getPrefix(), key.getIncludeClass(), key.getHashTag());
+        }
+
+        /**
+         * Not used by the stores anymore, kept for the applications that inject it.
+         */
+        @Bean
+        @ConditionalOnMissingBean
         @ConditionalOnProperty(value = "convo.store", havingValue = "redis", matchIfMissing = true)
         public RedisTemplate<String, AbstractConversationHolder> redisTemplate(RedisConnectionFactory redisConnectionFactory,
                                                                                ObjectMapper objectMapper) {
@@ -67,12 +229,72 @@ public class ConvoAutoConfiguration {
             return template;
         }
 
+        @Bean
+        @ConditionalOnMissingBean(name = "conversationRedisTemplate")
+        @ConditionalOnProperty(value = "convo.store", havingValue = "redis", matchIfMissing = true)
+        public RedisTemplate<String, byte[]> conversationRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+            RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+            template.setConnectionFactory(redisConnectionFactory);
+
+            template.setKeySerializer(new StringRedisSerializer());
+            template.setValueSerializer(RedisSerializer.byteArray());
+
+            return template;
+        }
+
         @Bean
         @Primary
         @ConditionalOnMissingBean
         @ConditionalOnProperty(value = "convo.store", havingValue = "redis", matchIfMissing = true)
-        public RedisStoreRepository redisStoreRepository(RedisTemplate<String, AbstractConversationHolder> redisTemplate) {
-            return new RedisStoreRepository(redisTemplate);
+        @ConditionalOnProperty(value = "convo.redis.partial-writes", havingValue = "false", matchIfMissing = true)
+        public RedisStoreRepository redisStoreRepository(@Qualifier("conversationRedisTemplate")
+                                                         RedisTemplate<String, byte[]> redisTemplate,
+                                                         ConversationCodec codec,
+                                                         ConversationCompressor compressor,
+                                                         RedisKeyStrategy keyStrategy,
+                                                         ConvoProperties properties,
+                                                         ObjectProvider<ConversationMetrics> metrics) {
+            return new RedisStoreRepository(redisTemplate, metered(codec, metrics), compressor, keyStrategy,
+                    properties);
+        }
+
+        @Bean
+        @Primary
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(value = "convo.store", havingValue = "redis", matchIfMissing = true)
+        @ConditionalOnProperty(value = "convo.redis.partial-writes", havingValue = "true")
+        public RedisHashStoreRepository redisHashStoreRepository(RedisConnectionFactory redisConnectionFactory,
+                                                                 ConversationCodec codec,
+                                                                 ConversationCompressor compressor,
+                                                                 RedisKeyStrategy keyStrategy,
+                                                                 ConvoProperties properties) {
+            return new RedisHashStoreRepository(new StringRedisTemplate(redisConnectionFactory), codec, compressor,
+                    keyStrategy, properties);
+        }
+
+        @Bean
+        @ConditionalOnMissingBean(name = "conversationCacheListenerContainer")
+        @ConditionalOnProperty(value = "convo.cache.enabled", havingValue = "true")
+        @ConditionalOnProperty(value = "convo.cache.invalidation", havingValue = "redis")
+        public RedisMessageListenerContainer conversationCacheListenerContainer(
+                RedisConnectionFactory redisConnectionFactory, Environment environment) {
+            var listenerContainer = new RedisMessageListenerContainer();
+            listenerContainer.setConnectionFactory(redisConnectionFactory);
+            if (Threading.VIRTUAL.isActive(environment)) {
+                listenerContainer.setTaskExecutor(new VirtualThreadTaskExecutor("convo-cache-"));
+            }
+            return listenerContainer;
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(value = "convo.cache.enabled", havingValue = "true")
+        @ConditionalOnProperty(value = "convo.cache.invalidation", havingValue = "redis")
+        public RedisCacheInvalidationBroadcaster redisCacheInvalidationBroadcaster(
+                RedisConnectionFactory redisConnectionFactory,
+                @Qualifier("conversationCacheListenerContainer") RedisMessageListenerContainer listenerContainer) {
+            return new RedisCacheInvalidationBroadcaster(new StringRedisTemplate(redisConnectionFactory),
+                    listenerContainer);
         }
     }
 
@@ -83,15 +305,96 @@ public class ConvoAutoConfiguration {
         @Bean
         @ConditionalOnMissingBean
         @ConditionalOnProperty(value = "convo.store", havingValue = "jdbc", matchIfMissing = true)
-        public JdbcStoreRepository jdbcStoreRepository(NamedParameterJdbcTemplate jdbcTemplate, ObjectMapper objectMapper,
-                                                       ConvoProperties properties, ScheduledExecutorService cleanupExecutorService,
-                                                       TransactionTemplate transactionTemplate) {
-            return new JdbcStoreRepository(objectMapper, jdbcTemplate, properties, cleanupExecutorService, transactionTemplate);
+        public JdbcStoreRepository jdbcStoreRepository(NamedParameterJdbcTemplate jdbcTemplate, ConversationCodec codec,
+                                                       ConversationCompressor compressor, ConvoProperties properties,
+                                                       ScheduledExecutorService cleanupExecutorService,
+                                                       TransactionTemplate transactionTemplate,
+                                                       ObjectProvider<ConversationMetrics> metrics) {
+            var dialect = properties.getJdbc().getDialect() != null ? properties.getJdbc().getDialect() :
+                    JdbcDialect.detect(jdbcTemplate.getJdbcTemplate().getDataSource());
+            return new JdbcStoreRepository(metered(codec, metrics), compressor, dialect, jdbcTemplate, properties,
+                    cleanupExecutorService, transactionTemplate,
+                    metrics.getIfAvailable(() -> ConversationMetrics.NOOP));
+        }
+    }
+
+    @Configuration
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public static class ReactiveConfig {
+
+        @Bean
+        @ConditionalOnBean(ReactiveStoreRepository.class)
+        public ReactiveConversationRepository reactiveConversationRepository(IdGenerator idGenerator,
+                                                                             ObjectMapper objectMapper,
+                                                                             ReactiveStoreRepository storeRepository) {
+            return new ReactiveConversationRepository(idGenerator, objectMapper, storeRepository);
+        }
+
+        @Bean
+        public ReactiveConversationFilter reactiveConversationFilter() {
+            return new ReactiveConversationFilter();
+        }
+
+        @Configuration
+        @ConditionalOnClass(ReactiveRedisTemplate.class)
+        public static class ReactiveRedisConfig {
+
+            @Bean
+            @ConditionalOnMissingBean(name = "conversationReactiveRedisTemplate")
+            @ConditionalOnProperty(value = "convo.store", havingValue = "redis", matchIfMissing = true)
+            public ReactiveRedisTemplate<String, byte[]> conversationReactiveRedisTemplate(
+                    ReactiveRedisConnectionFactory redisConnectionFactory) {
+                RedisSerializationContext<String, byte[]> serializationContext = RedisSerializationContext
+                        .<String, byte[]>newSerializationContext(new StringRedisSerializer())
+                        .value(RedisSerializer.byteArray())
+                        .build();
+                return new ReactiveRedisTemplate<>(redisConnectionFactory, serializationContext);
+            }
+
+            @Bean
+            @Primary
+            @ConditionalOnMissingBean
+            @ConditionalOnProperty(value = "convo.store", havingValue = "redis", matchIfMissing = true)
+            @ConditionalOnProperty(value = "convo.redis.partial-writes", havingValue = "false", matchIfMissing = true)
+            public ReactiveRedisStoreRepository reactiveRedisStoreRepository(
+                    @Qualifier("conversationReactiveRedisTemplate") ReactiveRedisTemplate<String, byte[]> redisTemplate,
+                    ConversationCodec codec, ConversationCompressor compressor, RedisKeyStrategy keyStrategy,
+                    ConvoProperties properties) {
+                return new ReactiveRedisStoreRepository(redisTemplate, codec, compressor, keyStrategy, properties);
+            }
+        }
+
+        @Configuration
+        @ConditionalOnClass(DatabaseClient.class)
+        public static class R2dbcConfig {
+
+            @Bean
+            @ConditionalOnMissingBean
+            @ConditionalOnProperty(value = "convo.store", havingValue = "jdbc", matchIfMissing = true)
+            public R2dbcStoreRepository r2dbcStoreRepository(DatabaseClient databaseClient, ConversationCodec codec,
+                                                             ConversationCompressor compressor,
+                                                             ConvoProperties properties) {
+                var dialect = properties.getJdbc().getDialect() != null ? properties.getJdbc().getDialect() :
+                        R2dbcStoreRepository.detectDialect(databaseClient.getConnectionFactory());
+                return new R2dbcStoreRepository(codec, compressor, dialect, databaseClient, properties);
+            }
         }
     }
 
     @Bean
+    @ConditionalOnThreading(Threading.PLATFORM)
     public ScheduledExecutorService cleanupExecutorService() {
         return Executors.newSingleThreadScheduledExecutor();
     }
+
+    /**
+     * Runs the cleanup on a virtual thread when {@code spring.threads.virtual.enabled} is set (Java 21+),
+     * so it doesn't hold a platform thread while waiting on the database.
+     */
+    @Bean(name = "cleanupExecutorService")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public ScheduledExecutorService virtualCleanupExecutorService() {
+        return Executors.newSingleThreadScheduledExecutor(
+                new VirtualThreadTaskExecutor("convo-cleanup-").getVirtualThreadFactory());
+    }
 }
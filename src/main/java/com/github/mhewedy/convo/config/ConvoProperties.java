@@ -1,7 +1,11 @@
 package com.github.mhewedy.convo.config;
 
+import com.github.mhewedy.convo.RequestScope;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.store.JdbcDialect;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 import java.time.Duration;
 
@@ -10,20 +14,177 @@ import java.time.Duration;
 public class ConvoProperties {
 
     private Store store = Store.REDIS;
+    private Codec codec = Codec.JSON;
+    private Compression compression = new Compression();
+    private Cache cache = new Cache();
+    /**
+     * How conversations are shared within the current http request.
+     */
+    private RequestScope requestScope = RequestScope.NONE;
+    /**
+     * Whether saving a conversation fails if it has been saved by another request since it was loaded,
+     * requires the {@code revision} column in the jdbc store.
+     */
+    private Boolean optimisticLocking = false;
+    /**
+     * Whether the stores index the conversations by owner, to find and delete all the conversations of an owner,
+     * requires the {@code owner_id} column in the jdbc store.
+     */
+    private Boolean ownerIndex = false;
+    private SlidingExpiration slidingExpiration = new SlidingExpiration();
+    private AsyncSave asyncSave = new AsyncSave();
     private Jdbc jdbc = new Jdbc();
+    private Redis redis = new Redis();
 
     public enum Store {
         JDBC, REDIS, CUSTOM
     }
 
+    public enum Codec {
+        JSON, SMILE, CBOR
+    }
+
+    @Data
+    public static class Compression {
+        /**
+         * Compress the stored conversations larger than the threshold.
+         * Compressed conversations are still readable after disabling it.
+         */
+        private Boolean enabled = false;
+        private ConversationCompressor.Algorithm algorithm = ConversationCompressor.Algorithm.DEFLATE;
+        private DataSize threshold = DataSize.ofKilobytes(4);
+    }
+
+    @Data
+    public static class Cache {
+        /**
+         * Keep a local copy of the recently read or saved conversations in front of the store.
+         */
+        private Boolean enabled = false;
+        private Integer maximumSize = 10_000;
+        /**
+         * Maximum time a local copy is used, also bounded by the conversation's time to live.
+         */
+        private Duration timeToLive = Duration.ofMinutes(1);
+        /**
+         * How other nodes are notified to drop their local copy when a conversation changes. The default
+         * {@code local} only drops the copies in the same JVM, so it is for single node deployments, other nodes
+         * may read their stale copy for up to the time to live.
+         */
+        private Invalidation invalidation = Invalidation.LOCAL;
+
+        public enum Invalidation {
+            /**
+             * In the same JVM only, for single node deployments.
+             */
+            LOCAL,
+            /**
+             * Redis pub/sub, for multiple nodes.
+             */
+            REDIS
+        }
+    }
+
+    @Data
+    public static class SlidingExpiration {
+        /**
+         * Extend the expiry of a conversation to its full time to live whenever it is found by id, without writing
+         * its value.
+         */
+        private Boolean enabled = false;
+        /**
+         * Fraction of the time to live that has to pass before a read extends the expiry again in the jdbc store,
+         * so the expiry is written at most once per fraction of the time to live.
+         */
+        private Double touchFraction = 0.1;
+    }
+
+    /**
+     * Buffering of the saves of the conversations annotated with {@link com.github.mhewedy.convo.annotations.AsyncSave}.
+     */
+    @Data
+    public static class AsyncSave {
+        /**
+         * Buffer the saves of the annotated conversations, otherwise they are written before the save returns.
+         */
+        private Boolean enabled = false;
+        /**
+         * Maximum number of buffered conversations, saves are written before returning when the buffer is full.
+         */
+        private Integer capacity = 10_000;
+        /**
+         * Maximum number of conversations written to the store at once.
+         */
+        private Integer batchSize = 100;
+        private Duration flushInterval = Duration.ofMillis(200);
+    }
+
+    @Data
+    public static class Redis {
+        /**
+         * Store each step of the conversation in a separate hash field, and write only the updated step on save
+         * when {@code convo.optimistic-locking} is enabled. The conversations stored before enabling it (or after
+         * disabling it) are not readable.
+         */
+        private Boolean partialWrites = false;
+        private Key key = new Key();
+
+        /**
+         * Layout of the conversation keys, see {@link com.github.mhewedy.convo.store.RedisKeyStrategy#of}.
+         * The conversations stored before changing it are not readable.
+         */
+        @Data
+        public static class Key {
+            private String prefix = "";
+            private Boolean includeClass = false;
+            /**
+             * Wrap the id in a hash tag, required on Redis Cluster.
+             */
+            private Boolean hashTag = false;
+        }
+    }
+
     @Data
     public static class Jdbc {
+        /**
+         * The database dialect, detected from the datasource metadata if not set.
+         */
+        private JdbcDialect dialect;
         private Cleanup cleanup = new Cleanup();
+        private Partitioning partitioning = new Partitioning();
 
         @Data
         public static class Cleanup {
             private Boolean enabled = true;
             private Duration interval = Duration.ofMinutes(15);
+            /**
+             * Maximum number of expired conversations deleted by a single statement.
+             */
+            private Integer batchSize = 1000;
+            private Duration batchPause = Duration.ofMillis(100);
+            /**
+             * Run the cleanup on one node at a time, requires the {@code conversation_cleanup_lease} table.
+             */
+            private Boolean lease = false;
+        }
+
+        @Data
+        public static class Partitioning {
+            /**
+             * Expire conversations by dropping partitions of a table partitioned by {@code expires_at}
+             * (see {@code sql/postgres-partitioned.sql} and {@code sql/mysql-partitioned.sql}),
+             * the partitions are maintained by the cleanup task. Supported on postgres and mysql.
+             */
+            private Boolean enabled = false;
+            /**
+             * Time range of each partition, should not be changed after the partitions are created.
+             */
+            private Duration partitionSize = Duration.ofDays(1);
+            /**
+             * Partitions are created ahead for this duration, should be longer than the longest time to live
+             * of the conversations plus the cleanup interval.
+             */
+            private Duration createAhead = Duration.ofDays(2);
         }
     }
 }
@@ -0,0 +1,62 @@
+package com.github.mhewedy.convo.metrics;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Records the metrics of the conversation operations, {@link #NOOP} unless Micrometer is available.
+ *
+ * @see MicrometerConversationMetrics
+ * @see ObservationConversationMetrics
+ */
+public interface ConversationMetrics {
+
+    ConversationMetrics NOOP = new ConversationMetrics() {
+    };
+
+    /**
+     * Runs the operation on conversations of the given class, timing it by its outcome.
+     */
+    default <T> T record(String operation, Class<?> clazz, Supplier<T> action) {
+        return action.get();
+    }
+
+    default void record(String operation, Class<?> clazz, Runnable action) {
+        record(operation, clazz, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a part of an operation, such as the nullification diff ({@code nullify}), the serialization
+     * ({@code encode}, {@code decode}) or a store round trip ({@code store.<method>}).
+     */
+    default <T> T recordPhase(String phase, Class<?> clazz, Supplier<T> action) {
+        return action.get();
+    }
+
+    /**
+     * @param direction {@code encode} or {@code decode}
+     */
+    default void recordPayloadSize(Class<?> clazz, String direction, int bytes) {
+    }
+
+    /**
+     * @param nullifiedSteps the number of steps following the updated step, that are nullified on save
+     */
+    default void recordUpdatedStep(Class<?> clazz, int step, int nullifiedSteps) {
+    }
+
+    /**
+     * @param hit whether the conversation is found in the local cache
+     */
+    default void recordCacheAccess(Class<?> clazz, boolean hit) {
+    }
+
+    default void recordVersionMismatch(Class<?> clazz) {
+    }
+
+    default void recordCleanup(Duration duration, int removed) {
+    }
+}
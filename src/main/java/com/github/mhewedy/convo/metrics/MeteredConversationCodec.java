@@ -0,0 +1,46 @@
+package com.github.mhewedy.convo.metrics;
+
+import com.github.mhewedy.convo.codec.ConversationCodec;
+
+import java.lang.reflect.Type;
+
+/**
+ * Records the size of the conversations encoded and decoded by the codec, before compression, and the
+ * serialization as the {@code encode} and {@code decode} phases.
+ */
+public class MeteredConversationCodec implements ConversationCodec {
+
+    private final ConversationCodec delegate;
+    private final ConversationMetrics metrics;
+
+    public MeteredConversationCodec(ConversationCodec delegate, ConversationMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return metrics.recordPhase("encode", value.getClass(), () -> {
+            byte[] bytes = delegate.encode(value);
+            metrics.recordPayloadSize(value.getClass(), "encode", bytes.length);
+            return bytes;
+        });
+    }
+
+    @Override
+    public Object decode(byte[] bytes, Type type) {
+        var clazz = type instanceof Class<?> it ? it : Object.class;
+        return metrics.recordPhase("decode", clazz, () -> {
+            Object value = delegate.decode(bytes, type);
+            if (value != null) {
+                metrics.recordPayloadSize(value.getClass(), "decode", bytes.length);
+            }
+            return value;
+        });
+    }
+
+    @Override
+    public boolean isBinary() {
+        return delegate.isBinary();
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.mhewedy.convo.metrics;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.store.SaveContext;
+import com.github.mhewedy.convo.store.StoreRepository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Records each call to the store as the {@code store.<method>} phase of the current operation.
+ */
+public class MeteredStoreRepository implements StoreRepository {
+
+    private final StoreRepository delegate;
+    private final ConversationMetrics metrics;
+
+    public MeteredStoreRepository(StoreRepository delegate, ConversationMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t) {
+        metrics.recordPhase("store.save", t.getClass(), () -> {
+            delegate.save(t);
+            return null;
+        });
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t, SaveContext context) {
+        metrics.recordPhase("store.save", t.getClass(), () -> {
+            delegate.save(t, context);
+            return null;
+        });
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> Optional<T> findById(String id, Class<T> clazz) {
+        return metrics.recordPhase("store.findById", clazz, () -> delegate.findById(id, clazz));
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void delete(T t) {
+        metrics.recordPhase("store.delete", t.getClass(), () -> {
+            delegate.delete(t);
+            return null;
+        });
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void saveAll(Collection<T> ts) {
+        metrics.recordPhase("store.saveAll", classOf(ts), () -> {
+            delegate.saveAll(ts);
+            return null;
+        });
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> List<T> findAllById(Collection<String> ids, Class<T> clazz) {
+        return metrics.recordPhase("store.findAllById", clazz, () -> delegate.findAllById(ids, clazz));
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void deleteAll(Collection<T> ts) {
+        metrics.recordPhase("store.deleteAll", classOf(ts), () -> {
+            delegate.deleteAll(ts);
+            return null;
+        });
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> List<String> findIdsByOwner(String ownerId, Class<T> clazz) {
+        return metrics.recordPhase("store.findIdsByOwner", clazz, () -> delegate.findIdsByOwner(ownerId, clazz));
+    }
+
+    private static Class<?> classOf(Collection<? extends AbstractConversationHolder> ts) {
+        return ts.isEmpty() ? AbstractConversationHolder.class : ts.iterator().next().getClass();
+    }
+}
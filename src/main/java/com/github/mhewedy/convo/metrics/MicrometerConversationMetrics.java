@@ -0,0 +1,120 @@
+package com.github.mhewedy.convo.metrics;
+
+import com.github.mhewedy.convo.ConversationConflictException;
+import com.github.mhewedy.convo.ConversationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters of the conversation operations, all tagged by {@code store}:
+ *
+ * <ul>
+ *     <li>{@code convo.operations}: timer of the {@link com.github.mhewedy.convo.ConversationRepository} operations,
+ *     tagged by {@code operation}, {@code class} and {@code outcome} ({@code success}, {@code conflict} for
+ *     {@link ConversationConflictException}, {@code rejected} for other {@link ConversationException}s, such as
+ *     not found or owner mismatch, or {@code error})</li>
+ *     <li>{@code convo.payload.size}: summary of the encoded and decoded conversation sizes in bytes, tagged by
+ *     {@code class} and {@code direction}</li>
+ *     <li>{@code convo.nullified.steps}: summary of the steps nullified on save, tagged by {@code class}</li>
+ *     <li>{@code convo.cache.requests}: counter of the reads from the local cache, tagged by {@code class} and
+ *     {@code result} ({@code hit} or {@code miss})</li>
+ *     <li>{@code convo.version.mismatches}: counter of the conversations rejected for their version, tagged by
+ *     {@code class}</li>
+ *     <li>{@code convo.cleanup.duration} and {@code convo.cleanup.removed}: gauges of the duration (in seconds) and
+ *     the removed conversations of the last cleanup of the jdbc store</li>
+ * </ul>
+ */
+public class MicrometerConversationMetrics implements ConversationMetrics {
+
+    private final MeterRegistry registry;
+    private final String store;
+    private final AtomicLong cleanupDurationNanos = new AtomicLong();
+    private final AtomicLong cleanupRemoved = new AtomicLong();
+
+    public MicrometerConversationMetrics(MeterRegistry registry, String store) {
+        this.registry = registry;
+        this.store = store;
+    }
+
+    @Override
+    public <T> T record(String operation, Class<?> clazz, Supplier<T> action) {
+        var sample = Timer.start(registry);
+        var outcome = "error";
+        try {
+            T ret = action.get();
+            outcome = "success";
+            return ret;
+        } catch (ConversationConflictException ex) {
+            outcome = "conflict";
+            throw ex;
+        } catch (ConversationException ex) {
+            outcome = "rejected";
+            throw ex;
+        } finally {
+            sample.stop(Timer.builder("convo.operations")
+                    .description("conversation repository operations")
+                    .tags("store", store, "operation", operation, "class", clazz.getSimpleName(), "outcome", outcome)
+                    .register(registry));
+        }
+    }
+
+    @Override
+    public void recordPayloadSize(Class<?> clazz, String direction, int bytes) {
+        DistributionSummary.builder("convo.payload.size")
+                .description("size of the encoded conversations")
+                .baseUnit("bytes")
+                .tags("store", store, "class", clazz.getSimpleName(), "direction", direction)
+                .register(registry)
+                .record(bytes);
+    }
+
+    @Override
+    public void recordUpdatedStep(Class<?> clazz, int step, int nullifiedSteps) {
+        DistributionSummary.builder("convo.nullified.steps")
+                .description("steps nullified on save, following the updated step")
+                .tags("store", store, "class", clazz.getSimpleName())
+                .register(registry)
+                .record(nullifiedSteps);
+    }
+
+    @Override
+    public void recordCacheAccess(Class<?> clazz, boolean hit) {
+        Counter.builder("convo.cache.requests")
+                .description("conversations read from the local cache")
+                .tags("store", store, "class", clazz.getSimpleName(), "result", hit ? "hit" : "miss")
+                .register(registry)
+                .increment();
+    }
+
+    @Override
+    public void recordVersionMismatch(Class<?> clazz) {
+        Counter.builder("convo.version.mismatches")
+                .description("conversations rejected because their version is not the current one")
+                .tags("store", store, "class", clazz.getSimpleName())
+                .register(registry)
+                .increment();
+    }
+
+    @Override
+    public void recordCleanup(Duration duration, int removed) {
+        cleanupDurationNanos.set(duration.toNanos());
+        cleanupRemoved.set(removed);
+        // registered by the first cleanup, so the stores without cleanup have no cleanup gauges
+        Gauge.builder("convo.cleanup.duration", cleanupDurationNanos, it -> it.get() / 1e9)
+                .description("duration of the last cleanup of the expired conversations")
+                .baseUnit("seconds")
+                .tag("store", store)
+                .register(registry);
+        Gauge.builder("convo.cleanup.removed", cleanupRemoved, AtomicLong::get)
+                .description("conversations removed by the last cleanup of the expired conversations")
+                .tag("store", store)
+                .register(registry);
+    }
+}
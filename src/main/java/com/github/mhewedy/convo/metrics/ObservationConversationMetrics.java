@@ -0,0 +1,83 @@
+package com.github.mhewedy.convo.metrics;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Observes the conversation operations with Micrometer Observation, so they show up as spans when tracing is
+ * configured, then passes everything to the delegate (e.g. {@link MicrometerConversationMetrics}).
+ * <ul>
+ *     <li>{@code convo.operation}: each {@link com.github.mhewedy.convo.ConversationRepository} operation, with the
+ *     {@code convo.operation} and {@code convo.class} low cardinality key values, and {@code convo.step} (the updated
+ *     step on save) and {@code convo.cache} ({@code hit} or {@code miss}) high cardinality key values</li>
+ *     <li>{@code convo.phase}: the parts of an operation as child observations, with the {@code convo.phase} and
+ *     {@code convo.class} key values: {@code nullify}, {@code encode} and {@code decode} (with the
+ *     {@code convo.payload.size} key value in bytes), and {@code store.<method>} for the store round trips</li>
+ * </ul>
+ */
+public class ObservationConversationMetrics implements ConversationMetrics {
+
+    private final ObservationRegistry registry;
+    private final ConversationMetrics delegate;
+
+    public ObservationConversationMetrics(ObservationRegistry registry, ConversationMetrics delegate) {
+        this.registry = registry;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public <T> T record(String operation, Class<?> clazz, Supplier<T> action) {
+        return Observation.createNotStarted("convo.operation", registry)
+                .contextualName("convo " + operation)
+                .lowCardinalityKeyValue("convo.operation", operation)
+                .lowCardinalityKeyValue("convo.class", clazz.getSimpleName())
+                .observe(() -> delegate.record(operation, clazz, action));
+    }
+
+    @Override
+    public <T> T recordPhase(String phase, Class<?> clazz, Supplier<T> action) {
+        return Observation.createNotStarted("convo.phase", registry)
+                .contextualName("convo " + phase)
+                .lowCardinalityKeyValue("convo.phase", phase)
+                .lowCardinalityKeyValue("convo.class", clazz.getSimpleName())
+                .observe(() -> delegate.recordPhase(phase, clazz, action));
+    }
+
+    @Override
+    public void recordPayloadSize(Class<?> clazz, String direction, int bytes) {
+        addToCurrentObservation("convo.payload.size", String.valueOf(bytes));
+        delegate.recordPayloadSize(clazz, direction, bytes);
+    }
+
+    @Override
+    public void recordUpdatedStep(Class<?> clazz, int step, int nullifiedSteps) {
+        addToCurrentObservation("convo.step", String.valueOf(step));
+        delegate.recordUpdatedStep(clazz, step, nullifiedSteps);
+    }
+
+    @Override
+    public void recordCacheAccess(Class<?> clazz, boolean hit) {
+        addToCurrentObservation("convo.cache", hit ? "hit" : "miss");
+        delegate.recordCacheAccess(clazz, hit);
+    }
+
+    @Override
+    public void recordVersionMismatch(Class<?> clazz) {
+        delegate.recordVersionMismatch(clazz);
+    }
+
+    @Override
+    public void recordCleanup(Duration duration, int removed) {
+        delegate.recordCleanup(duration, removed);
+    }
+
+    private void addToCurrentObservation(String key, String value) {
+        var current = registry.getCurrentObservation();
+        if (current != null) {
+            current.highCardinalityKeyValue(key, value);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded buffer of the saves of {@link com.github.mhewedy.convo.annotations.AsyncSave} conversations, written to
+ * the store in batches by a background task every flush interval, used by {@link AsyncSaveStoreRepository}.
+ * <p>
+ * Conversations are buffered by (id, class) in their encoded form, so a later save of the same conversation replaces
+ * the buffered one, and changes made to the object after the save are not written.
+ * A buffered conversation stays readable until it is written. If a batch fails, its conversations are written one by
+ * one, and the ones that still fail are dropped.
+ * <p>
+ * {@link #close()} stops the background task, shuts down its executor and writes the buffered conversations.
+ */
+@Slf4j
+public class AsyncSaveBuffer implements AutoCloseable {
+
+    private final StoreRepository delegate;
+    private final ConversationCodec codec;
+    private final int capacity;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final ScheduledExecutorService executorService;
+    /**
+     * Guarded by its own monitor, which is never held while calling the store.
+     */
+    private final Map<String, Entry> buffer = new LinkedHashMap<>();
+    /**
+     * Held while writing to the store, so a delete is never overwritten by a write of the same conversation.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean closed;
+
+    public AsyncSaveBuffer(StoreRepository delegate, ConversationCodec codec, int capacity, int batchSize,
+                           Duration flushInterval, ScheduledExecutorService executorService) {
+        this.delegate = delegate;
+        this.codec = codec;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.executorService = executorService;
+    }
+
+    /**
+     * @return false if the conversation is not buffered because the buffer is full or closed, the caller should
+     * then write it to the store by {@link #remove(Collection, Runnable)}, so a buffered copy of the same
+     * conversation is dropped and never written over it.
+     */
+    public <T extends AbstractConversationHolder> boolean offer(T t) {
+        var key = key(t.id, t.getClass());
+        var entry = new Entry(t.getClass(), codec.encode(t));
+        synchronized (buffer) {
+            if (closed || (!buffer.containsKey(key) && buffer.size() >= capacity)) {
+                log.debug("async save buffer is full or closed, saving conversation: {} synchronously", key);
+                return false;
+            }
+            buffer.put(key, entry);
+        }
+        startIfRequired();
+        return true;
+    }
+
+    /**
+     * @return the buffered conversation, not yet written to the store
+     */
+    public <T extends AbstractConversationHolder> Optional<T> get(String id, Class<T> clazz) {
+        Entry entry;
+        synchronized (buffer) {
+            entry = buffer.get(key(id, clazz));
+        }
+        return Optional.ofNullable(entry).map(it -> codec.decode(it.value, clazz));
+    }
+
+    /**
+     * @return the ids of the buffered conversations of the class that belong to the owner
+     */
+    public <T extends AbstractConversationHolder> List<String> findIdsByOwner(String ownerId, Class<T> clazz) {
+        List<Entry> entries;
+        synchronized (buffer) {
+            entries = buffer.values().stream().filter(it -> it.clazz == clazz).toList();
+        }
+        return entries.stream()
+                .map(it -> codec.decode(it.value, clazz))
+                .filter(it -> ownerId.equals(it._ownerId))
+                .map(it -> it.id)
+                .toList();
+    }
+
+    /**
+     * Drops the buffered saves of the conversations, then runs the write to the store (a delete, or a save not
+     * buffered), without any write of the buffer in between.
+     */
+    public <T extends AbstractConversationHolder> void remove(Collection<T> ts, Runnable delete) {
+        writeLock.lock();
+        try {
+            synchronized (buffer) {
+                ts.forEach(t -> buffer.remove(key(t.id, t.getClass())));
+            }
+            delete.run();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the conversations buffered so far, in batches.
+     */
+    public void flush() {
+        writeLock.lock();
+        try {
+            List<Map.Entry<String, Entry>> entries;
+            synchronized (buffer) {
+                entries = buffer.entrySet().stream().map(Map.Entry::copyOf).toList();
+            }
+            for (int i = 0; i < entries.size(); i += batchSize) {
+                write(entries.subList(i, Math.min(i + batchSize, entries.size())));
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(flushInterval.toMillis() + 5_000, TimeUnit.MILLISECONDS)) {
+                log.warn("async save flush task did not terminate");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    int size() {
+        synchronized (buffer) {
+            return buffer.size();
+        }
+    }
+
+    private void write(List<Map.Entry<String, Entry>> batch) {
+        List<AbstractConversationHolder> ts = new ArrayList<>(batch.size());
+        batch.forEach(it -> ts.add(codec.decode(it.getValue().value, it.getValue().clazz)));
+        try {
+            delegate.saveAll(ts);
+        } catch (RuntimeException ex) {
+            log.warn("failed to write {} buffered conversations, writing them one by one, reason: {}",
+                    ts.size(), ex.getMessage());
+            for (var t : ts) {
+                try {
+                    delegate.save(t);
+                } catch (RuntimeException e) {
+                    log.error("dropping buffered conversation with id: {}, class: {}, reason: {}",
+                            t.id, t.getClass().getName(), e.getMessage());
+                }
+            }
+        }
+        synchronized (buffer) {
+            // conversations saved again while writing stay buffered for the next flush
+            batch.forEach(it -> buffer.remove(it.getKey(), it.getValue()));
+        }
+        log.debug("{} buffered conversations written", ts.size());
+    }
+
+    private void startIfRequired() {
+        if (started.compareAndSet(false, true)) {
+            try {
+                executorService.scheduleWithFixedDelay(() -> {
+                    try {
+                        flush();
+                    } catch (Exception ex) {
+                        log.warn(ex.getMessage());
+                    }
+                }, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                log.debug("async save buffer is closed, the buffered conversations are written by close");
+            }
+        }
+    }
+
+    private static String key(String id, Class<?> clazz) {
+        return clazz.getName() + ":" + id;
+    }
+
+    private record Entry(Class<? extends AbstractConversationHolder> clazz, byte[] value) {
+    }
+}
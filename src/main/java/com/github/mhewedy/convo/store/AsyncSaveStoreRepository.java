@@ -0,0 +1,114 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationMetadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Saves the conversations annotated with {@link com.github.mhewedy.convo.annotations.AsyncSave} into an
+ * {@link AsyncSaveBuffer} instead of the store, and reads them from the buffer until they are written.
+ * Other conversations are passed to the store as is.
+ */
+public class AsyncSaveStoreRepository implements StoreRepository {
+
+    private final StoreRepository delegate;
+    private final AsyncSaveBuffer buffer;
+
+    public AsyncSaveStoreRepository(StoreRepository delegate, AsyncSaveBuffer buffer) {
+        this.delegate = delegate;
+        this.buffer = buffer;
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t) {
+        save(t, SaveContext.UNKNOWN);
+    }
+
+    /**
+     * The revision of the buffered conversations is not checked, even when they are written synchronously.
+     */
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t, SaveContext context) {
+        if (!ConversationMetadata.of(t).isAsyncSave()) {
+            delegate.save(t, context);
+        } else if (!buffer.offer(t)) {
+            buffer.remove(List.of(t), () -> delegate.save(t, context.withoutRevisionCheck()));
+        }
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> Optional<T> findById(String id, Class<T> clazz) {
+        if (ConversationMetadata.of(clazz).isAsyncSave()) {
+            var buffered = buffer.get(id, clazz);
+            if (buffered.isPresent()) {
+                return buffered;
+            }
+        }
+        return delegate.findById(id, clazz);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void delete(T t) {
+        if (ConversationMetadata.of(t).isAsyncSave()) {
+            buffer.remove(List.of(t), () -> delegate.delete(t));
+        } else {
+            delegate.delete(t);
+        }
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void saveAll(Collection<T> ts) {
+        List<T> notBuffered = new ArrayList<>();
+        List<T> rejected = new ArrayList<>();
+        for (T t : ts) {
+            if (!ConversationMetadata.of(t).isAsyncSave()) {
+                notBuffered.add(t);
+            } else if (!buffer.offer(t)) {
+                notBuffered.add(t);
+                rejected.add(t);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            buffer.remove(rejected, () -> delegate.saveAll(notBuffered));
+        } else if (!notBuffered.isEmpty()) {
+            delegate.saveAll(notBuffered);
+        }
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> List<T> findAllById(Collection<String> ids, Class<T> clazz) {
+        if (!ConversationMetadata.of(clazz).isAsyncSave()) {
+            return delegate.findAllById(ids, clazz);
+        }
+        List<T> ret = new ArrayList<>(ids.size());
+        List<String> missing = new ArrayList<>();
+        for (var id : ids) {
+            buffer.get(id, clazz).ifPresentOrElse(ret::add, () -> missing.add(id));
+        }
+        if (!missing.isEmpty()) {
+            ret.addAll(delegate.findAllById(missing, clazz));
+        }
+        return ret;
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> List<String> findIdsByOwner(String ownerId, Class<T> clazz) {
+        var ids = delegate.findIdsByOwner(ownerId, clazz);
+        if (!ConversationMetadata.of(clazz).isAsyncSave()) {
+            return ids;
+        }
+        var ret = new LinkedHashSet<>(ids);
+        ret.addAll(buffer.findIdsByOwner(ownerId, clazz));
+        return new ArrayList<>(ret);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void deleteAll(Collection<T> ts) {
+        buffer.remove(ts, () -> delegate.deleteAll(ts));
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.mhewedy.convo.store;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Lease on a row of the {@code conversation_cleanup_lease} table, so only one node runs the cleanup at a time.
+ * <p>
+ * The node holding the lease renews it on each run, the other nodes acquire it only after it expires
+ * (e.g. the node holding it is stopped).
+ */
+class JdbcCleanupLease {
+
+    private static final String NAME = "conversation_cleanup";
+
+    private static final String SQL_RENEW = "UPDATE conversation_cleanup_lease SET owner = :owner, expires_at = :expires_at WHERE name = :name AND (owner = :owner OR expires_at < :now)";
+    private static final String SQL_INSERT = "INSERT INTO conversation_cleanup_lease (name, owner, expires_at) VALUES (:name, :owner, :expires_at)";
+
+    private final String owner = UUID.randomUUID().toString();
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Duration duration;
+
+    JdbcCleanupLease(NamedParameterJdbcTemplate jdbcTemplate, Duration duration) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.duration = duration;
+    }
+
+    /**
+     * @return true if the lease is acquired or renewed by this node.
+     */
+    boolean tryAcquire() {
+        var now = Instant.now();
+        var params = new MapSqlParameterSource()
+                .addValue("name", NAME)
+                .addValue("owner", owner)
+                .addValue("now", Timestamp.from(now))
+                .addValue("expires_at", Timestamp.from(now.plus(duration)));
+
+        if (jdbcTemplate.update(SQL_RENEW, params) == 1) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update(SQL_INSERT, params) == 1;
+        } catch (DuplicateKeyException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.mhewedy.convo.store;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.util.Locale;
+
+/**
+ * Database specific SQL used by {@link JdbcStoreRepository}, detected from the {@link DataSource} metadata
+ * or set by the {@code convo.jdbc.dialect} property.
+ * <p>
+ * The upsert statements insert the conversation or update it only if the existing row has the same
+ * {@code conversation_class}, so a conversation of another class with the same id is never overwritten.
+ * On MySQL, such an upsert is a no-op still reported as affecting the row (Connector/J reports the matched rows
+ * by default), so the class of the saved row is read back to fail the save.
+ * <p>
+ * The cleanup statements delete at most {@code :batch_size} expired conversations.
+ */
+@Slf4j
+public enum JdbcDialect {
+
+    POSTGRES("INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value) " +
+            "VALUES (:id, :expires_at, :conversation_class, :conversation_value) " +
+            "ON CONFLICT (id) DO UPDATE SET expires_at = EXCLUDED.expires_at, conversation_value = EXCLUDED.conversation_value " +
+            "WHERE conversation_holder.conversation_class = EXCLUDED.conversation_class",
+            "INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value, owner_id) " +
+                    "VALUES (:id, :expires_at, :conversation_class, :conversation_value, :owner_id) " +
+                    "ON CONFLICT (id) DO UPDATE SET expires_at = EXCLUDED.expires_at, conversation_value = EXCLUDED.conversation_value, " +
+                    "owner_id = EXCLUDED.owner_id " +
+                    "WHERE conversation_holder.conversation_class = EXCLUDED.conversation_class",
+            "DELETE FROM conversation_holder WHERE ctid = ANY (ARRAY(" +
+                    "SELECT ctid FROM conversation_holder WHERE expires_at < :now LIMIT :batch_size))"),
+
+    MYSQL("INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value) " +
+            "VALUES (:id, :expires_at, :conversation_class, :conversation_value) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "expires_at = CASE WHEN conversation_class = VALUES(conversation_class) " +
+            "THEN VALUES(expires_at) ELSE expires_at END, " +
+            "conversation_value = CASE WHEN conversation_class = VALUES(conversation_class) " +
+            "THEN VALUES(conversation_value) ELSE conversation_value END",
+            "INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value, owner_id) " +
+                    "VALUES (:id, :expires_at, :conversation_class, :conversation_value, :owner_id) " +
+                    "ON DUPLICATE KEY UPDATE " +
+                    "expires_at = CASE WHEN conversation_class = VALUES(conversation_class) " +
+                    "THEN VALUES(expires_at) ELSE expires_at END, " +
+                    "conversation_value = CASE WHEN conversation_class = VALUES(conversation_class) " +
+                    "THEN VALUES(conversation_value) ELSE conversation_value END, " +
+                    "owner_id = CASE WHEN conversation_class = VALUES(conversation_class) " +
+                    "THEN VALUES(owner_id) ELSE owner_id END",
+            "DELETE FROM conversation_holder WHERE expires_at < :now LIMIT :batch_size", true),
+
+    MSSQL("MERGE INTO conversation_holder WITH (HOLDLOCK) AS t USING (SELECT 1 AS one) AS s ON t.id = :id " +
+            "WHEN MATCHED AND t.conversation_class = :conversation_class " +
+            "THEN UPDATE SET expires_at = :expires_at, conversation_value = :conversation_value " +
+            "WHEN NOT MATCHED THEN INSERT (id, expires_at, conversation_class, conversation_value) " +
+            "VALUES (:id, :expires_at, :conversation_class, :conversation_value);",
+            "MERGE INTO conversation_holder WITH (HOLDLOCK) AS t USING (SELECT 1 AS one) AS s ON t.id = :id " +
+                    "WHEN MATCHED AND t.conversation_class = :conversation_class " +
+                    "THEN UPDATE SET expires_at = :expires_at, conversation_value = :conversation_value, owner_id = :owner_id " +
+                    "WHEN NOT MATCHED THEN INSERT (id, expires_at, conversation_class, conversation_value, owner_id) " +
+                    "VALUES (:id, :expires_at, :conversation_class, :conversation_value, :owner_id);",
+            "DELETE TOP (:batch_size) FROM conversation_holder WHERE expires_at < :now"),
+
+    H2("MERGE INTO conversation_holder t USING (SELECT 1 AS one) s ON t.id = :id " +
+            "WHEN MATCHED AND t.conversation_class = :conversation_class " +
+            "THEN UPDATE SET expires_at = :expires_at, conversation_value = :conversation_value " +
+            "WHEN NOT MATCHED THEN INSERT (id, expires_at, conversation_class, conversation_value) " +
+            "VALUES (:id, :expires_at, :conversation_class, :conversation_value)",
+            "MERGE INTO conversation_holder t USING (SELECT 1 AS one) s ON t.id = :id " +
+                    "WHEN MATCHED AND t.conversation_class = :conversation_class " +
+                    "THEN UPDATE SET expires_at = :expires_at, conversation_value = :conversation_value, owner_id = :owner_id " +
+                    "WHEN NOT MATCHED THEN INSERT (id, expires_at, conversation_class, conversation_value, owner_id) " +
+                    "VALUES (:id, :expires_at, :conversation_class, :conversation_value, :owner_id)",
+            "DELETE FROM conversation_holder WHERE expires_at < :now FETCH FIRST :batch_size ROWS ONLY"),
+
+    /**
+     * No upsert support, the existence of the conversation is checked before inserting or updating it.
+     * The expired conversations are deleted in a single statement.
+     */
+    GENERIC(null, null, null);
+
+    final String upsertSql;
+    /**
+     * Same as {@link #upsertSql}, also writing the {@code owner_id} column, used when {@code convo.owner-index}
+     * is enabled.
+     */
+    final String upsertWithOwnerSql;
+    final String cleanupBatchSql;
+    /**
+     * Whether an upsert ignored for a conversation of another class may still be counted as an updated row,
+     * so the class of the saved row has to be checked after the upsert. On MySQL, an ignored upsert counts 1 row
+     * like an insert, while an update counts 2 (the expiry always changes), so only the upserts counting 1 row
+     * (or an unknown count in a batch) are checked.
+     */
+    final boolean upsertCountsIgnoredRows;
+
+    JdbcDialect(String upsertSql, String upsertWithOwnerSql, String cleanupBatchSql) {
+        this(upsertSql, upsertWithOwnerSql, cleanupBatchSql, false);
+    }
+
+    JdbcDialect(String upsertSql, String upsertWithOwnerSql, String cleanupBatchSql, boolean upsertCountsIgnoredRows) {
+        this.upsertSql = upsertSql;
+        this.upsertWithOwnerSql = upsertWithOwnerSql;
+        this.cleanupBatchSql = cleanupBatchSql;
+        this.upsertCountsIgnoredRows = upsertCountsIgnoredRows;
+    }
+
+    boolean supportsUpsert() {
+        return upsertSql != null;
+    }
+
+    public static JdbcDialect detect(DataSource dataSource) {
+        try {
+            String productName = JdbcUtils.extractDatabaseMetaData(dataSource,
+                    DatabaseMetaData::getDatabaseProductName);
+            var dialect = fromProductName(productName);
+            log.debug("detected jdbc dialect: {} for database: {}", dialect, productName);
+            return dialect;
+        } catch (MetaDataAccessException ex) {
+            log.warn("failed to detect jdbc dialect, using {}, reason: {}", GENERIC, ex.getMessage());
+            return GENERIC;
+        }
+    }
+
+    static JdbcDialect fromProductName(String productName) {
+        var name = productName == null ? "" : productName.toLowerCase(Locale.ROOT);
+        if (name.contains("postgresql")) {
+            return POSTGRES;
+        } else if (name.contains("mysql") || name.contains("mariadb")) {
+            return MYSQL;
+        } else if (name.contains("microsoft sql server")) {
+            return MSSQL;
+        } else if (name.equals("h2")) {
+            return H2;
+        }
+        return GENERIC;
+    }
+}
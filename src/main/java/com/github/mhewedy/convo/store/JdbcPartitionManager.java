@@ -0,0 +1,183 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.ConversationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Manages the partitions of a {@code conversation_holder} table partitioned by range on {@code expires_at}
+ * (see {@code sql/postgres-partitioned.sql} and {@code sql/mysql-partitioned.sql}).
+ * <p>
+ * Each partition holds the conversations expiring within a fixed size time range, aligned to the epoch and
+ * named after its start in UTC (e.g. {@code conversation_holder_p202610160000} on Postgres,
+ * {@code p202610160000} on MySQL). Partitions are created ahead of time, and a partition is dropped as a whole
+ * once its end is in the past, so expired conversations are never deleted row by row.
+ * <p>
+ * The primary key of a partitioned table has to include {@code expires_at}, so the id alone is not unique.
+ * Saves of the same id are serialized by {@link #lockId(String)} instead, a transaction scoped advisory lock on
+ * Postgres, a named lock released on completion of the transaction on MySQL.
+ */
+@Slf4j
+class JdbcPartitionManager {
+
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmm")
+            .withZone(ZoneOffset.UTC);
+
+    private static final String POSTGRES_PREFIX = "conversation_holder_p";
+    private static final String POSTGRES_LIST = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = 'conversation_holder'";
+    private static final String POSTGRES_CREATE = "CREATE TABLE IF NOT EXISTS %s PARTITION OF conversation_holder FOR VALUES FROM ('%s') TO ('%s')";
+    private static final String POSTGRES_DROP = "DROP TABLE IF EXISTS %s";
+
+    private static final String MYSQL_PREFIX = "p";
+    private static final String MYSQL_LIST = "SELECT PARTITION_NAME FROM information_schema.PARTITIONS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'conversation_holder' AND PARTITION_NAME IS NOT NULL";
+    private static final String MYSQL_CREATE = "ALTER TABLE conversation_holder ADD PARTITION (PARTITION %s VALUES LESS THAN ('%3$s'))";
+    private static final String MYSQL_DROP = "ALTER TABLE conversation_holder DROP PARTITION %s";
+
+    private static final String POSTGRES_LOCK = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(hashtext(:name))) l";
+    // hashed as on Postgres, since MySQL lock names are limited to 64 characters
+    private static final String MYSQL_LOCK = "SELECT GET_LOCK(SHA1(:name), :timeout)";
+    private static final String MYSQL_UNLOCK = "SELECT RELEASE_LOCK(SHA1(:name))";
+    private static final String LOCK_PREFIX = "convo:";
+    private static final int LOCK_TIMEOUT_SECONDS = 10;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final JdbcDialect dialect;
+    private final Duration partitionSize;
+    private final Duration createAhead;
+
+    JdbcPartitionManager(NamedParameterJdbcTemplate jdbcTemplate, JdbcDialect dialect,
+                         Duration partitionSize, Duration createAhead) {
+        if (dialect != JdbcDialect.POSTGRES && dialect != JdbcDialect.MYSQL) {
+            throw new IllegalStateException("partitioning is only supported on postgres and mysql, dialect: " + dialect);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.dialect = dialect;
+        this.partitionSize = partitionSize;
+        this.createAhead = createAhead;
+    }
+
+    /**
+     * Creates the missing partitions from the current one up to {@code now + createAhead}.
+     *
+     * @return the number of created partitions
+     */
+    int createPartitions(Instant now) {
+        var existing = new HashSet<>(listPartitions());
+        int created = 0;
+        for (var start : partitionStarts(now)) {
+            var name = name(start);
+            if (existing.contains(name)) {
+                continue;
+            }
+            log.debug("creating partition: {}", name);
+            execute(dialect == JdbcDialect.POSTGRES ? POSTGRES_CREATE : MYSQL_CREATE, name, start);
+            created++;
+        }
+        return created;
+    }
+
+    /**
+     * Drops the partitions that only hold expired conversations.
+     *
+     * @return the number of dropped partitions
+     */
+    int dropExpiredPartitions(Instant now) {
+        int dropped = 0;
+        for (var name : listPartitions()) {
+            var start = parseStart(name);
+            if (start != null && !start.plus(partitionSize).isAfter(now)) {
+                log.debug("dropping expired partition: {}", name);
+                execute(dialect == JdbcDialect.POSTGRES ? POSTGRES_DROP : MYSQL_DROP, name, start);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    List<Instant> partitionStarts(Instant now) {
+        long size = partitionSize.toMillis();
+        long first = Math.floorDiv(now.toEpochMilli(), size) * size;
+        long last = now.plus(createAhead).toEpochMilli();
+
+        List<Instant> starts = new ArrayList<>();
+        for (long start = first; start <= last; start += size) {
+            starts.add(Instant.ofEpochMilli(start));
+        }
+        return starts;
+    }
+
+    String name(Instant start) {
+        return prefix() + NAME_FORMAT.format(start);
+    }
+
+    Instant parseStart(String name) {
+        if (!name.startsWith(prefix())) {
+            return null;
+        }
+        try {
+            return Instant.from(NAME_FORMAT.parse(name.substring(prefix().length())));
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Blocks until no other transaction holds the lock of the id, then holds it until the current transaction
+     * completes.
+     *
+     * @throws IllegalStateException if not called in a transaction
+     * @throws ConversationException if the lock is not acquired in {@value #LOCK_TIMEOUT_SECONDS} seconds on MySQL
+     */
+    void lockId(String id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("conversation lock requires an active transaction");
+        }
+        var params = new MapSqlParameterSource("name", LOCK_PREFIX + id);
+        if (dialect == JdbcDialect.POSTGRES) {
+            jdbcTemplate.queryForObject(POSTGRES_LOCK, params, Integer.class);
+            return;
+        }
+        var acquired = jdbcTemplate.queryForObject(MYSQL_LOCK,
+                params.addValue("timeout", LOCK_TIMEOUT_SECONDS), Integer.class);
+        if (!Integer.valueOf(1).equals(acquired)) {
+            throw new ConversationException("timed out waiting for the lock of the conversation", "conversationId", id);
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                jdbcTemplate.queryForObject(MYSQL_UNLOCK, params, Integer.class);
+            }
+        });
+    }
+
+    private List<String> listPartitions() {
+        return jdbcTemplate.queryForList(dialect == JdbcDialect.POSTGRES ? POSTGRES_LIST : MYSQL_LIST,
+                Map.of(), String.class);
+    }
+
+    /**
+     * The bounds are written as local timestamps, the same way {@code expires_at} is bound as {@link Timestamp}.
+     */
+    private void execute(String sql, String name, Instant start) {
+        jdbcTemplate.getJdbcOperations().execute(String.format(sql, name,
+                Timestamp.from(start), Timestamp.from(start.plus(partitionSize))));
+    }
+
+    private String prefix() {
+        return dialect == JdbcDialect.POSTGRES ? POSTGRES_PREFIX : MYSQL_PREFIX;
+    }
+}
@@ -1,21 +1,36 @@
 package com.github.mhewedy.convo.store;
 
-import tools.jackson.databind.ObjectMapper;
 import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationConflictException;
 import com.github.mhewedy.convo.ConversationException;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
 import com.github.mhewedy.convo.config.ConvoProperties;
+import com.github.mhewedy.convo.metrics.ConversationMetrics;
 import jakarta.annotation.PostConstruct;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.databind.ObjectMapper;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
@@ -31,6 +46,22 @@ import java.util.concurrent.TimeUnit;
  *     <li>{@code conversation_class}: A string indicating the class or type of the conversation (e.g., VARCHAR(500))</li>
  *     <li>{@code conversation_value}: The data of the conversation, stored as large text or serialized data (e.g., VARCHAR(8000), TEXT)</li>
  * </ul>
+ * <p>
+ * When a binary {@link ConversationCodec} is used (e.g. {@code convo.codec=smile}), {@code conversation_value} should be
+ * a binary column instead (e.g., BYTEA, VARBINARY(MAX), LONGBLOB).
+ * </p>
+ * <p>
+ * When compression is enabled ({@code convo.compression.enabled=true}), large values are stored compressed, in text
+ * columns as base64 prefixed with {@value #COMPRESSED_TEXT_PREFIX}.
+ * </p>
+ * <p>
+ * When optimistic locking is enabled ({@code convo.optimistic-locking=true}), the table should have a {@code revision}
+ * column as well (e.g., BIGINT).
+ * </p>
+ * <p>
+ * When the owner index is enabled ({@code convo.owner-index=true}), the table should have an indexed {@code owner_id}
+ * column as well (e.g., VARCHAR(255)).
+ * </p>
  *
  * <p>
  * SQL definitions for creating the {@code conversation_holder} table are provided in separate files located in the
@@ -44,32 +75,135 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class JdbcStoreRepository implements StoreRepository {
 
-    private static final String SQL_SELECT = "SELECT conversation_value FROM conversation_holder WHERE id = :id AND conversation_class = :conversation_class";
+    private static final String SQL_EXISTS = "SELECT 1 FROM conversation_holder WHERE id = :id AND conversation_class = :conversation_class";
+    private static final String SQL_SELECT = "SELECT conversation_value, expires_at FROM conversation_holder WHERE id = :id AND conversation_class = :conversation_class AND expires_at > :now";
+    private static final String SQL_SELECT_CLASS = "SELECT conversation_class FROM conversation_holder WHERE id = :id";
+    private static final String SQL_SELECT_CLASSES = "SELECT id, conversation_class FROM conversation_holder WHERE id IN (:ids)";
+    private static final String SQL_SELECT_ALL = "SELECT conversation_value FROM conversation_holder WHERE id IN (:ids) AND conversation_class = :conversation_class AND expires_at > :now";
     private static final String SQL_INSERT = "INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value) VALUES (:id, :expires_at, :conversation_class, :conversation_value)";
     private static final String SQL_UPDATE = "UPDATE conversation_holder SET conversation_value = :conversation_value, expires_at = :expires_at WHERE id = :id and conversation_class = :conversation_class";
+    private static final String SQL_INSERT_REVISION = "INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value, revision) VALUES (:id, :expires_at, :conversation_class, :conversation_value, :revision)";
+    private static final String SQL_UPDATE_REVISION = "UPDATE conversation_holder SET conversation_value = :conversation_value, expires_at = :expires_at, revision = :revision WHERE id = :id and conversation_class = :conversation_class AND (COALESCE(revision, 0) = :expected_revision OR expires_at <= :now)";
+    private static final String SQL_INSERT_OWNER = "INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value, owner_id) VALUES (:id, :expires_at, :conversation_class, :conversation_value, :owner_id)";
+    private static final String SQL_UPDATE_OWNER = "UPDATE conversation_holder SET conversation_value = :conversation_value, expires_at = :expires_at, owner_id = :owner_id WHERE id = :id and conversation_class = :conversation_class";
+    private static final String SQL_INSERT_REVISION_OWNER = "INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value, revision, owner_id) VALUES (:id, :expires_at, :conversation_class, :conversation_value, :revision, :owner_id)";
+    private static final String SQL_UPDATE_REVISION_OWNER = "UPDATE conversation_holder SET conversation_value = :conversation_value, expires_at = :expires_at, revision = :revision, owner_id = :owner_id WHERE id = :id and conversation_class = :conversation_class AND (COALESCE(revision, 0) = :expected_revision OR expires_at <= :now)";
+    private static final String SQL_TOUCH = "UPDATE conversation_holder SET expires_at = :expires_at WHERE id = :id and conversation_class = :conversation_class AND expires_at > :now";
+    private static final String SQL_SELECT_IDS_BY_OWNER = "SELECT id FROM conversation_holder WHERE owner_id = :owner_id AND conversation_class = :conversation_class AND expires_at > :now";
     private static final String SQL_DELETE = "DELETE FROM conversation_holder WHERE id = :id and conversation_class = :conversation_class";
     private static final String SQL_CLEANUP = "DELETE from conversation_holder  WHERE expires_at < :now";
 
-    private final ObjectMapper objectMapper;
+    static final String COMPRESSED_TEXT_PREFIX = "~CZ:";
+
+    /**
+     * Maximum number of ids in a single {@code IN} clause, or statements in a single batch.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private final ConversationCodec codec;
+    private final ConversationCompressor compressor;
+    private final JdbcDialect dialect;
     private final ConvoProperties properties;
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final ScheduledExecutorService cleanupExecutorService;
     private final TransactionTemplate transactionTemplate;
+    private final JdbcCleanupLease cleanupLease;
+    private final JdbcPartitionManager partitionManager;
+    private final boolean ownerIndex;
+    private final String insertSql;
+    private final String updateSql;
+    private final String insertRevisionSql;
+    private final String updateRevisionSql;
+    private final String upsertSql;
+    private final boolean slidingExpiration;
+    private final double touchFraction;
+    private final ConversationMetrics metrics;
 
+    /**
+     * Stores the conversations as json by the object mapper, uncompressed, as the previous versions did.
+     * The dialect is {@code convo.jdbc.dialect}, or detected from the datasource when not set.
+     *
+     * @deprecated use the constructor that accepts the {@link ConversationCodec} and the {@link JdbcDialect}
+     */
+    @Deprecated
     public JdbcStoreRepository(ObjectMapper objectMapper, NamedParameterJdbcTemplate jdbcTemplate,
                                ConvoProperties properties, ScheduledExecutorService cleanupExecutorService,
                                TransactionTemplate transactionTemplate) {
-        this.objectMapper = objectMapper;
+        this(new JacksonConversationCodec(objectMapper), ConversationCompressor.disabled(),
+                properties.getJdbc().getDialect() != null ? properties.getJdbc().getDialect() :
+                        JdbcDialect.detect(jdbcTemplate.getJdbcTemplate().getDataSource()),
+                jdbcTemplate, properties, cleanupExecutorService, transactionTemplate);
+    }
+
+    public JdbcStoreRepository(ConversationCodec codec, ConversationCompressor compressor, JdbcDialect dialect,
+                               NamedParameterJdbcTemplate jdbcTemplate, ConvoProperties properties,
+                               ScheduledExecutorService cleanupExecutorService,
+                               TransactionTemplate transactionTemplate) {
+        this(codec, compressor, dialect, jdbcTemplate, properties, cleanupExecutorService, transactionTemplate,
+                ConversationMetrics.NOOP);
+    }
+
+    /**
+     * @param metrics records the duration and the removed conversations of the scheduled cleanups
+     */
+    public JdbcStoreRepository(ConversationCodec codec, ConversationCompressor compressor, JdbcDialect dialect,
+                               NamedParameterJdbcTemplate jdbcTemplate, ConvoProperties properties,
+                               ScheduledExecutorService cleanupExecutorService,
+                               TransactionTemplate transactionTemplate, ConversationMetrics metrics) {
+        this.codec = codec;
+        this.compressor = compressor;
+        this.dialect = dialect;
         this.jdbcTemplate = jdbcTemplate;
         this.properties = properties;
         this.cleanupExecutorService = cleanupExecutorService;
         this.transactionTemplate = transactionTemplate;
+
+        var cleanup = properties.getJdbc().getCleanup();
+        this.cleanupLease = cleanup.getLease() ?
+                new JdbcCleanupLease(jdbcTemplate, cleanup.getInterval().plus(cleanup.getInterval().dividedBy(2))) :
+                null;
+
+        var partitioning = properties.getJdbc().getPartitioning();
+        if (partitioning.getEnabled() && properties.getOptimisticLocking()) {
+            throw new IllegalStateException("convo.jdbc.partitioning can't be enabled with convo.optimistic-locking");
+        }
+        this.partitionManager = partitioning.getEnabled() ?
+                new JdbcPartitionManager(jdbcTemplate, dialect, partitioning.getPartitionSize(),
+                        partitioning.getCreateAhead()) :
+                null;
+
+        this.ownerIndex = properties.getOwnerIndex();
+        this.insertSql = ownerIndex ? SQL_INSERT_OWNER : SQL_INSERT;
+        this.updateSql = ownerIndex ? SQL_UPDATE_OWNER : SQL_UPDATE;
+        this.insertRevisionSql = ownerIndex ? SQL_INSERT_REVISION_OWNER : SQL_INSERT_REVISION;
+        this.updateRevisionSql = ownerIndex ? SQL_UPDATE_REVISION_OWNER : SQL_UPDATE_REVISION;
+        this.upsertSql = ownerIndex ? dialect.upsertWithOwnerSql : dialect.upsertSql;
+
+        this.slidingExpiration = properties.getSlidingExpiration().getEnabled();
+        this.touchFraction = properties.getSlidingExpiration().getTouchFraction();
+        this.metrics = metrics;
     }
 
+    /**
+     * Saves the conversation using a single upsert statement when supported by the {@link JdbcDialect},
+     * otherwise checks its existence before inserting or updating it.
+     * <p>
+     * Upsert is not used on partitioned tables, since their primary key includes {@code expires_at}. Instead, the id
+     * is locked (see {@link JdbcPartitionManager#lockId(String)}) while checking its existence and inserting it.
+     */
     @Override
     @Transactional
     public <T extends AbstractConversationHolder> void save(T t) {
-        var exists = jdbcTemplate.query(SQL_SELECT, createParams(t.id, t.getClass()), ResultSet::next);
+        if (useUpsert()) {
+            t._expiresAt = Instant.now().plus(Util.getTimeToLive(t));
+            upsertConversation(t);
+            return;
+        }
+        if (partitionManager != null) {
+            transactionTemplate.executeWithoutResult(status -> saveLocked(t));
+            return;
+        }
+        var exists = jdbcTemplate.query(SQL_EXISTS, createParams(t.id, t.getClass()), ResultSet::next);
         t._expiresAt = Instant.now().plus(Util.getTimeToLive(t));
 
         if (Boolean.TRUE.equals(exists)) {
@@ -79,28 +213,74 @@ public class JdbcStoreRepository implements StoreRepository {
         }
     }
 
+    /**
+     * When the conversation is known to exist, the existence check is skipped and the row is updated directly,
+     * falling back to insert in case the row has been removed in the meantime (e.g. by the cleanup task).
+     */
+    @Override
+    @Transactional
+    public <T extends AbstractConversationHolder> void save(T t, SaveContext context) {
+        if (context.expectedRevision() != null) {
+            saveIfRevisionMatches(t, context.expectedRevision());
+            return;
+        }
+        if (!context.existing() || useUpsert() || partitionManager != null) {
+            save(t);
+            return;
+        }
+        log.trace("conversation for class: {} loaded before, updating...", t.getClass().getName());
+        t._expiresAt = Instant.now().plus(Util.getTimeToLive(t));
+
+        if (jdbcTemplate.update(updateSql, createValueParams(t)) == 0) {
+            createNewConversation(t);
+        }
+    }
+
+    /**
+     * Expired conversations are filtered out by the query, and removed later by the cleanup task.
+     * <p>
+     * With sliding expiration, the expiry is extended by updating {@code expires_at} only, once the configured
+     * fraction of the time to live has passed since it was last set.
+     */
     @Override
     @Transactional
     public <T extends AbstractConversationHolder> Optional<T> findById(String id, Class<T> clazz) {
         log.trace("find conversation with id: {}, class: {}", id, clazz.getSimpleName());
-        try {
-            T value = jdbcTemplate.queryForObject(SQL_SELECT, createParams(id, clazz),
-                    (rs, rowNum) -> fromJson(rs.getString("conversation_value"), clazz));
-
-            if (value == null || Instant.now().isAfter(value._expiresAt)) {
-                if (value == null) {
-                    log.debug("conversation not found: {}", id);
-                } else {
-                    delete(value);
-                    log.debug("conversation expired: {}", id);
-                }
-                return Optional.empty();
-            }
-            return Optional.of(value);
-        } catch (EmptyResultDataAccessException ex) {
-            log.debug("conversation not found: {}, reason: {}", id, ex.getMessage());
+        var now = Instant.now();
+        var params = createParams(id, clazz).addValue("now", Timestamp.from(now));
+        var values = jdbcTemplate.query(SQL_SELECT, params, (rs, rowNum) -> {
+            var t = decode(rs, clazz);
+            t._expiresAt = rs.getTimestamp("expires_at").toInstant();
+            return t;
+        });
+        if (values.isEmpty()) {
+            log.debug("conversation not found or expired: {}", id);
             return Optional.empty();
         }
+        if (values.size() > 1) {
+            throw new ConversationException("multiple conversations stored with the same id", "conversationId", id);
+        }
+        var t = values.get(0);
+        if (slidingExpiration) {
+            touchIfRequired(t, now);
+        }
+        return Optional.of(t);
+    }
+
+    private <T extends AbstractConversationHolder> void touchIfRequired(T t, Instant now) {
+        var timeToLive = Util.getTimeToLive(t);
+        var expiresAt = now.plus(timeToLive);
+        var touchAfter = Duration.ofMillis((long) (timeToLive.toMillis() * touchFraction));
+        if (t._expiresAt.plus(touchAfter).isAfter(expiresAt)) {
+            return;
+        }
+        log.trace("extending the expiry of conversation: {} to: {}", t.id, expiresAt);
+        var params = createParams(t.id, t.getClass())
+                .addValue("expires_at", Timestamp.from(expiresAt))
+                .addValue("now", Timestamp.from(now));
+        if (jdbcTemplate.update(SQL_TOUCH, params) > 0) {
+            t._expiresAt = expiresAt;
+        }
     }
 
     @Override
@@ -110,29 +290,276 @@ public class JdbcStoreRepository implements StoreRepository {
         jdbcTemplate.update(SQL_DELETE, createParams(t.id, t.getClass()));
     }
 
+    /**
+     * Saves the conversations using batched upsert statements when supported, otherwise saves them one by one.
+     */
+    @Override
+    @Transactional
+    public <T extends AbstractConversationHolder> void saveAll(Collection<T> ts) {
+        if (!useUpsert()) {
+            ts.forEach(this::save);
+            return;
+        }
+        var now = Instant.now();
+        for (var chunk : chunks(ts)) {
+            chunk.forEach(t -> t._expiresAt = now.plus(Util.getTimeToLive(t)));
+            int[] counts = jdbcTemplate.batchUpdate(upsertSql,
+                    chunk.stream().map(this::createValueParams).toArray(SqlParameterSource[]::new));
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    throw new ConversationException("failed to save object, id is used by another conversation class",
+                            "object", chunk.get(i));
+                }
+            }
+            if (dialect.upsertCountsIgnoredRows) {
+                List<T> unchecked = new ArrayList<>();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] != 2) {
+                        unchecked.add(chunk.get(i));
+                    }
+                }
+                if (!unchecked.isEmpty()) {
+                    checkConversationClasses(unchecked);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the non expired conversations found, in no specific order
+     */
+    @Override
+    @Transactional
+    public <T extends AbstractConversationHolder> List<T> findAllById(Collection<String> ids, Class<T> clazz) {
+        var now = Timestamp.from(Instant.now());
+        List<T> ret = new ArrayList<>(ids.size());
+        for (var chunk : chunks(ids)) {
+            var params = new MapSqlParameterSource()
+                    .addValue("ids", chunk)
+                    .addValue("conversation_class", clazz.getSimpleName())
+                    .addValue("now", now);
+            ret.addAll(jdbcTemplate.query(SQL_SELECT_ALL, params, (rs, rowNum) -> decode(rs, clazz)));
+        }
+        if (ret.stream().map(t -> t.id).distinct().count() < ret.size()) {
+            throw new ConversationException("multiple conversations stored with the same id", "conversationIds", ids);
+        }
+        return ret;
+    }
+
+    @Override
+    @Transactional
+    public <T extends AbstractConversationHolder> void deleteAll(Collection<T> ts) {
+        for (var chunk : chunks(ts)) {
+            jdbcTemplate.batchUpdate(SQL_DELETE,
+                    chunk.stream().map(t -> createParams(t.id, t.getClass())).toArray(SqlParameterSource[]::new));
+        }
+    }
+
+    /**
+     * Reads the {@code owner_id} column, written when {@code convo.owner-index} is enabled.
+     */
+    @Override
+    @Transactional
+    public <T extends AbstractConversationHolder> List<String> findIdsByOwner(String ownerId, Class<T> clazz) {
+        if (!ownerIndex) {
+            throw new UnsupportedOperationException("owner index is not enabled, set convo.owner-index=true");
+        }
+        var params = new MapSqlParameterSource()
+                .addValue("owner_id", ownerId)
+                .addValue("conversation_class", clazz.getSimpleName())
+                .addValue("now", Timestamp.from(Instant.now()));
+        return jdbcTemplate.queryForList(SQL_SELECT_IDS_BY_OWNER, params, String.class);
+    }
+
     @PostConstruct
     void startCleanupTask() {
+        if (partitionManager != null) {
+            try {
+                partitionManager.createPartitions(Instant.now());
+            } catch (Exception ex) {
+                log.warn("failed to create partitions: {}", ex.getMessage());
+            }
+        }
         if (properties.getJdbc().getCleanup().getEnabled()) {
-            cleanupExecutorService.scheduleAtFixedRate(() -> transactionTemplate.execute(status -> {
+            cleanupExecutorService.scheduleAtFixedRate(() -> {
                 try {
-                    int n = jdbcTemplate.update(SQL_CLEANUP, new MapSqlParameterSource(Map.of("now", Timestamp.from(Instant.now()))));
-                    log.trace("deleting expired conversations, {} rows deleted", n);
+                    long start = System.nanoTime();
+                    int removed = cleanup();
+                    metrics.recordCleanup(Duration.ofNanos(System.nanoTime() - start), removed);
                 } catch (Exception ex) {
                     log.warn(ex.getMessage());
                 }
-                return null;
-            }), 0, properties.getJdbc().getCleanup().getInterval().toMillis(), TimeUnit.MILLISECONDS);
+            }, 0, properties.getJdbc().getCleanup().getInterval().toMillis(), TimeUnit.MILLISECONDS);
         }
     }
 
-    private <T extends AbstractConversationHolder> void createNewConversation(T t) {
+    /**
+     * Deletes the expired conversations, in batches of {@code convo.jdbc.cleanup.batch-size} with a pause of
+     * {@code convo.jdbc.cleanup.batch-pause} between them, each batch in its own transaction.
+     * <p>
+     * When {@code convo.jdbc.cleanup.lease} is enabled, the cleanup is skipped if another node holds the lease,
+     * and stops if the lease is lost between batches.
+     * <p>
+     * When {@code convo.jdbc.partitioning.enabled} is enabled, the upcoming partitions are created and the expired
+     * partitions are dropped instead, and no rows are deleted.
+     *
+     * @return the number of deleted conversations
+     */
+    public int cleanup() {
+        if (cleanupLease != null && !cleanupLease.tryAcquire()) {
+            log.trace("cleanup lease is held by another node, skipping cleanup");
+            return 0;
+        }
+        if (partitionManager != null) {
+            var now = Instant.now();
+            int created = partitionManager.createPartitions(now);
+            int dropped = partitionManager.dropExpiredPartitions(now);
+            log.debug("maintaining partitions, {} partitions created, {} partitions dropped", created, dropped);
+            return 0;
+        }
+        var cleanup = properties.getJdbc().getCleanup();
+        var params = new MapSqlParameterSource()
+                .addValue("now", Timestamp.from(Instant.now()))
+                .addValue("batch_size", cleanup.getBatchSize());
+
+        if (dialect.cleanupBatchSql == null) {
+            int n = deleteExpired(SQL_CLEANUP, params);
+            log.debug("deleting expired conversations, {} rows deleted", n);
+            return n;
+        }
+
+        int total = 0, batches = 0;
+        while (true) {
+            int n = deleteExpired(dialect.cleanupBatchSql, params);
+            total += n;
+            batches++;
+            if (n < cleanup.getBatchSize() || !pause(cleanup.getBatchPause())) {
+                break;
+            }
+            if (cleanupLease != null && !cleanupLease.tryAcquire()) {
+                log.debug("cleanup lease is lost, stopping cleanup");
+                break;
+            }
+        }
+        log.debug("deleting expired conversations, {} rows deleted in {} batches", total, batches);
+        return total;
+    }
+
+    private static <E> List<List<E>> chunks(Collection<E> items) {
+        var list = List.copyOf(items);
+        List<List<E>> chunks = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += BATCH_SIZE) {
+            chunks.add(list.subList(i, Math.min(i + BATCH_SIZE, list.size())));
+        }
+        return chunks;
+    }
+
+    private boolean useUpsert() {
+        return dialect.supportsUpsert() && partitionManager == null;
+    }
+
+    private int deleteExpired(String sql, MapSqlParameterSource params) {
+        Integer n = transactionTemplate.execute(status -> jdbcTemplate.update(sql, params));
+        return n == null ? 0 : n;
+    }
+
+    private static boolean pause(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private <T extends AbstractConversationHolder> void upsertConversation(T t) {
+        log.trace("upserting conversation for class: {}", t.getClass().getName());
+
+        int update = jdbcTemplate.update(upsertSql, createValueParams(t));
+        if (update == 1 && dialect.upsertCountsIgnoredRows) {
+            var saved = jdbcTemplate.query(SQL_EXISTS, createParams(t.id, t.getClass()), ResultSet::next);
+            update = Boolean.TRUE.equals(saved) ? update : 0;
+        }
+        if (update == 0) {
+            throw new ConversationException("failed to save object, id is used by another conversation class",
+                    "object", t);
+        }
+    }
+
+    /**
+     * Fails if any of the upserted conversations is stored for another class, i.e. its upsert was ignored.
+     */
+    private <T extends AbstractConversationHolder> void checkConversationClasses(List<T> ts) {
+        Map<String, String> classes = new HashMap<>();
+        jdbcTemplate.query(SQL_SELECT_CLASSES,
+                new MapSqlParameterSource("ids", ts.stream().map(t -> t.id).toList()),
+                (RowCallbackHandler) rs -> classes.put(rs.getString("id"), rs.getString("conversation_class")));
+        for (T t : ts) {
+            if (!t.getClass().getSimpleName().equals(classes.get(t.id))) {
+                throw new ConversationException("failed to save object, id is used by another conversation class",
+                        "object", t);
+            }
+        }
+    }
+
+    /**
+     * Updates the row only if its revision is the expected one (or it is expired), otherwise inserts it if it does
+     * not exist, relying on the primary key to detect a concurrent insert.
+     *
+     * @throws ConversationException if the id is used by a conversation of another class
+     */
+    private <T extends AbstractConversationHolder> void saveIfRevisionMatches(T t, long expectedRevision) {
+        var now = Instant.now();
+        t._expiresAt = now.plus(Util.getTimeToLive(t));
+        var params = createValueParams(t)
+                .addValue("revision", t._revision)
+                .addValue("expected_revision", expectedRevision)
+                .addValue("now", Timestamp.from(now));
+
+        if (jdbcTemplate.update(updateRevisionSql, params) == 1) {
+            return;
+        }
+        var exists = jdbcTemplate.query(SQL_EXISTS, createParams(t.id, t.getClass()), ResultSet::next);
+        if (Boolean.TRUE.equals(exists)) {
+            throw new ConversationConflictException(t.id, expectedRevision);
+        }
         log.trace("conversation for class: {} does not exist, creating...", t.getClass().getName());
+        try {
+            jdbcTemplate.update(insertRevisionSql, params);
+        } catch (DuplicateKeyException ex) {
+            var classes = jdbcTemplate.queryForList(SQL_SELECT_CLASS, Map.of("id", t.id), String.class);
+            if (!classes.stream().allMatch(t.getClass().getSimpleName()::equals)) {
+                throw new ConversationException("failed to save object, id is used by another conversation class",
+                        "object", t);
+            }
+            throw new ConversationConflictException(t.id, expectedRevision);
+        }
+    }
 
-        var params = createParams(t.id, t.getClass());
-        params.addValue("expires_at", Timestamp.from(t._expiresAt));
-        params.addValue("conversation_value", toJson(t));
+    /**
+     * Saves the conversation in a partitioned table, where the id is not unique, holding the lock of its id until
+     * the end of the transaction, so a concurrent save of the same id can't insert it as well.
+     */
+    private <T extends AbstractConversationHolder> void saveLocked(T t) {
+        partitionManager.lockId(t.id);
+        var classes = jdbcTemplate.queryForList(SQL_SELECT_CLASS, Map.of("id", t.id), String.class);
+        t._expiresAt = Instant.now().plus(Util.getTimeToLive(t));
 
-        int update = jdbcTemplate.update(SQL_INSERT, params);
+        if (classes.isEmpty()) {
+            createNewConversation(t);
+        } else if (classes.stream().allMatch(t.getClass().getSimpleName()::equals)) {
+            updateExistingConversation(t);
+        } else {
+            throw new ConversationException("failed to save object, id is used by another conversation class",
+                    "object", t);
+        }
+    }
+
+    private <T extends AbstractConversationHolder> void createNewConversation(T t) {
+        log.trace("conversation for class: {} does not exist, creating...", t.getClass().getName());
+
+        int update = jdbcTemplate.update(insertSql, createValueParams(t));
         if (update != 1) {
             throw new ConversationException("failed to insert object", "object", t);
         }
@@ -141,25 +568,48 @@ public class JdbcStoreRepository implements StoreRepository {
     private <T extends AbstractConversationHolder> void updateExistingConversation(T t) {
         log.trace("conversation for class: {} already exists, updating...", t.getClass().getName());
 
-        var params = createParams(t.id, t.getClass());
-        params.addValue("expires_at", Timestamp.from(t._expiresAt));
-        params.addValue("conversation_value", toJson(t));
-
-        int update = jdbcTemplate.update(SQL_UPDATE, params);
+        int update = jdbcTemplate.update(updateSql, createValueParams(t));
         if (update != 1) {
             throw new ConversationException("failed to update object", "object", t);
         }
     }
 
-    private <T extends AbstractConversationHolder> String toJson(T t) throws RuntimeException {
-        return objectMapper.writeValueAsString(t);
+    private <T extends AbstractConversationHolder> T decode(ResultSet rs, Class<T> clazz) throws SQLException {
+        byte[] bytes = codec.isBinary() ?
+                rs.getBytes("conversation_value") : textToBytes(rs.getString("conversation_value"));
+        return codec.decode(compressor.decompress(bytes), clazz);
+    }
+
+    /**
+     * @return the {@code conversation_value} column value, bytes for binary codecs, otherwise text
+     * (base64 prefixed with {@value #COMPRESSED_TEXT_PREFIX} when compressed).
+     */
+    static Object encodeValue(ConversationCodec codec, ConversationCompressor compressor,
+                              AbstractConversationHolder t) {
+        byte[] bytes = compressor.compress(codec.encode(t));
+        if (codec.isBinary()) {
+            return bytes;
+        }
+        return ConversationCompressor.isCompressed(bytes) ?
+                COMPRESSED_TEXT_PREFIX + Base64.getEncoder().encodeToString(bytes) :
+                new String(bytes, StandardCharsets.UTF_8);
     }
 
-    private <T extends AbstractConversationHolder> T fromJson(String str, Class<T> clazz) {
-        return objectMapper.readValue(str, clazz);
+    static byte[] textToBytes(String text) {
+        return text.startsWith(COMPRESSED_TEXT_PREFIX) ?
+                Base64.getDecoder().decode(text.substring(COMPRESSED_TEXT_PREFIX.length())) :
+                text.getBytes(StandardCharsets.UTF_8);
     }
 
     private <T extends AbstractConversationHolder> MapSqlParameterSource createParams(String id, Class<T> clazz) {
         return new MapSqlParameterSource(Map.of("id", id, "conversation_class", clazz.getSimpleName()));
     }
+
+    private <T extends AbstractConversationHolder> MapSqlParameterSource createValueParams(T t) {
+        var params = createParams(t.id, t.getClass());
+        params.addValue("expires_at", Timestamp.from(t._expiresAt));
+        params.addValue("conversation_value", encodeValue(codec, compressor, t));
+        params.addValue("owner_id", t._ownerId);
+        return params;
+    }
 }
@@ -0,0 +1,243 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationException;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Row;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Non-blocking counterpart of {@link JdbcStoreRepository}, using the same {@code conversation_holder} table, the same
+ * {@link JdbcDialect} statements and the same column values, so both can be used on the same table.
+ * <p>
+ * The expired conversations are deleted in batches by a cleanup task, same as {@link JdbcStoreRepository#cleanup()},
+ * except that the cleanup lease ({@code convo.jdbc.cleanup.lease}) is not supported.
+ * <p>
+ * Partitioned tables ({@code convo.jdbc.partitioning.enabled}), the owner index ({@code convo.owner-index}),
+ * sliding expiration ({@code convo.sliding-expiration.enabled}) and optimistic locking
+ * ({@code convo.optimistic-locking}) are not supported, enabling any of them fails on construction.
+ */
+@Slf4j
+public class R2dbcStoreRepository implements ReactiveStoreRepository {
+
+    private static final String SQL_EXISTS = "SELECT 1 FROM conversation_holder WHERE id = :id AND conversation_class = :conversation_class";
+    private static final String SQL_SELECT = "SELECT conversation_value FROM conversation_holder WHERE id = :id AND conversation_class = :conversation_class AND expires_at > :now";
+    private static final String SQL_INSERT = "INSERT INTO conversation_holder (id, expires_at, conversation_class, conversation_value) VALUES (:id, :expires_at, :conversation_class, :conversation_value)";
+    private static final String SQL_UPDATE = "UPDATE conversation_holder SET conversation_value = :conversation_value, expires_at = :expires_at WHERE id = :id and conversation_class = :conversation_class";
+    private static final String SQL_DELETE = "DELETE FROM conversation_holder WHERE id = :id and conversation_class = :conversation_class";
+    private static final String SQL_CLEANUP = "DELETE from conversation_holder  WHERE expires_at < :now";
+
+    private final ConversationCodec codec;
+    private final ConversationCompressor compressor;
+    private final JdbcDialect dialect;
+    private final DatabaseClient databaseClient;
+    private final ConvoProperties properties;
+    private Disposable cleanupTask;
+
+    public R2dbcStoreRepository(ConversationCodec codec, ConversationCompressor compressor, JdbcDialect dialect,
+                                DatabaseClient databaseClient, ConvoProperties properties) {
+        Util.requireReactiveSupported(properties);
+        Util.requireDisabled(properties.getJdbc().getPartitioning().getEnabled(), "convo.jdbc.partitioning.enabled");
+        this.codec = codec;
+        this.compressor = compressor;
+        this.dialect = dialect;
+        this.databaseClient = databaseClient;
+        this.properties = properties;
+    }
+
+    /**
+     * @return the dialect of the database, detected from the {@link ConnectionFactory} metadata
+     */
+    public static JdbcDialect detectDialect(ConnectionFactory connectionFactory) {
+        var productName = connectionFactory.getMetadata().getName();
+        var dialect = JdbcDialect.fromProductName(productName);
+        log.debug("detected r2dbc dialect: {} for database: {}", dialect, productName);
+        return dialect;
+    }
+
+    /**
+     * Saves the conversation using a single upsert statement when supported by the {@link JdbcDialect},
+     * otherwise checks its existence before inserting or updating it.
+     * <p>
+     * As in {@link JdbcStoreRepository}, the class of the saved row is read back when the upsert may have been
+     * ignored for a conversation of another class (see {@link JdbcDialect#upsertCountsIgnoredRows}).
+     */
+    @Override
+    public <T extends AbstractConversationHolder> Mono<Void> save(T t) {
+        if (useUpsert()) {
+            return Mono.defer(() -> {
+                t._expiresAt = Instant.now().plus(Util.getTimeToLive(t));
+                log.trace("upserting conversation for class: {}", t.getClass().getName());
+                return bindValues(databaseClient.sql(dialect.upsertSql), t).fetch().rowsUpdated();
+            }).flatMap(update -> update == 1 && dialect.upsertCountsIgnoredRows ?
+                    bindKey(databaseClient.sql(SQL_EXISTS), t.id, t.getClass())
+                            .map(row -> 1).first().hasElement()
+                            .map(saved -> saved ? update : 0L) :
+                    Mono.just(update)
+            ).flatMap(update -> update == 0 ?
+                    Mono.error(new ConversationException("failed to save object, id is used by another conversation class",
+                            "object", t)) :
+                    Mono.empty());
+        }
+        return bindKey(databaseClient.sql(SQL_EXISTS), t.id, t.getClass())
+                .map(row -> 1).first().hasElement()
+                .flatMap(exists -> {
+                    t._expiresAt = Instant.now().plus(Util.getTimeToLive(t));
+                    return exists ? updateExistingConversation(t) : createNewConversation(t);
+                });
+    }
+
+    /**
+     * When the conversation is known to exist, the existence check is skipped and the row is updated directly,
+     * falling back to insert in case the row has been removed in the meantime (e.g. by the cleanup task).
+     */
+    @Override
+    public <T extends AbstractConversationHolder> Mono<Void> save(T t, SaveContext context) {
+        if (!context.existing() || useUpsert()) {
+            return save(t);
+        }
+        return Mono.defer(() -> {
+            log.trace("conversation for class: {} loaded before, updating...", t.getClass().getName());
+            t._expiresAt = Instant.now().plus(Util.getTimeToLive(t));
+            return bindValues(databaseClient.sql(SQL_UPDATE), t).fetch().rowsUpdated();
+        }).flatMap(update -> update == 0 ? createNewConversation(t) : Mono.empty());
+    }
+
+    /**
+     * Expired conversations are filtered out by the query, and removed later by the cleanup task.
+     */
+    @Override
+    public <T extends AbstractConversationHolder> Mono<T> findById(String id, Class<T> clazz) {
+        return Mono.defer(() -> {
+            log.trace("find conversation with id: {}, class: {}", id, clazz.getSimpleName());
+            return bindKey(databaseClient.sql(SQL_SELECT), id, clazz)
+                    .bind("now", timestamp(Instant.now()))
+                    .map((row, metadata) -> decode(row, clazz))
+                    .first();
+        });
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> Mono<Void> delete(T t) {
+        return Mono.defer(() -> {
+            log.trace("deleting conversation with id: {}, class: {}", t.id, t.getClass().getSimpleName());
+            return bindKey(databaseClient.sql(SQL_DELETE), t.id, t.getClass()).then();
+        });
+    }
+
+    @PostConstruct
+    void startCleanupTask() {
+        var cleanup = properties.getJdbc().getCleanup();
+        if (cleanup.getEnabled()) {
+            cleanupTask = Flux.interval(Duration.ZERO, cleanup.getInterval())
+                    .onBackpressureDrop()
+                    .concatMap(i -> cleanup().onErrorResume(ex -> {
+                        log.warn(ex.getMessage());
+                        return Mono.empty();
+                    }))
+                    .subscribe();
+        }
+    }
+
+    @PreDestroy
+    void stopCleanupTask() {
+        if (cleanupTask != null) {
+            cleanupTask.dispose();
+        }
+    }
+
+    /**
+     * Deletes the expired conversations, in batches of {@code convo.jdbc.cleanup.batch-size} with a pause of
+     * {@code convo.jdbc.cleanup.batch-pause} between them.
+     *
+     * @return the number of deleted conversations
+     */
+    public Mono<Long> cleanup() {
+        return Mono.defer(() -> {
+            var cleanup = properties.getJdbc().getCleanup();
+            var now = timestamp(Instant.now());
+
+            if (dialect.cleanupBatchSql == null) {
+                return databaseClient.sql(SQL_CLEANUP).bind("now", now).fetch().rowsUpdated()
+                        .doOnNext(n -> log.debug("deleting expired conversations, {} rows deleted", n));
+            }
+
+            Mono<Long> batch = databaseClient.sql(dialect.cleanupBatchSql)
+                    .bind("now", now)
+                    .bind("batch_size", cleanup.getBatchSize())
+                    .fetch().rowsUpdated();
+            return batch
+                    .expand(n -> n < cleanup.getBatchSize() ? Mono.empty() :
+                            batch.delaySubscription(cleanup.getBatchPause()))
+                    .collectList()
+                    .map(batches -> {
+                        long total = batches.stream().mapToLong(Long::longValue).sum();
+                        log.debug("deleting expired conversations, {} rows deleted in {} batches", total,
+                                batches.size());
+                        return total;
+                    });
+        });
+    }
+
+    private boolean useUpsert() {
+        return dialect.supportsUpsert() && !properties.getJdbc().getPartitioning().getEnabled();
+    }
+
+    private <T extends AbstractConversationHolder> Mono<Void> createNewConversation(T t) {
+        log.trace("conversation for class: {} does not exist, creating...", t.getClass().getName());
+
+        return bindValues(databaseClient.sql(SQL_INSERT), t).fetch().rowsUpdated()
+                .flatMap(update -> update != 1 ?
+                        Mono.error(new ConversationException("failed to insert object", "object", t)) :
+                        Mono.empty());
+    }
+
+    private <T extends AbstractConversationHolder> Mono<Void> updateExistingConversation(T t) {
+        log.trace("conversation for class: {} already exists, updating...", t.getClass().getName());
+
+        return bindValues(databaseClient.sql(SQL_UPDATE), t).fetch().rowsUpdated()
+                .flatMap(update -> update != 1 ?
+                        Mono.error(new ConversationException("failed to update object", "object", t)) :
+                        Mono.empty());
+    }
+
+    private <T extends AbstractConversationHolder> T decode(Row row, Class<T> clazz) {
+        byte[] bytes = codec.isBinary() ?
+                row.get("conversation_value", byte[].class) :
+                JdbcStoreRepository.textToBytes(row.get("conversation_value", String.class));
+        return codec.decode(compressor.decompress(bytes), clazz);
+    }
+
+    private GenericExecuteSpec bindKey(GenericExecuteSpec spec, String id, Class<?> clazz) {
+        return spec.bind("id", id).bind("conversation_class", clazz.getSimpleName());
+    }
+
+    private <T extends AbstractConversationHolder> GenericExecuteSpec bindValues(GenericExecuteSpec spec, T t) {
+        return bindKey(spec, t.id, t.getClass())
+                .bind("expires_at", timestamp(t._expiresAt))
+                .bind("conversation_value", JdbcStoreRepository.encodeValue(codec, compressor, t));
+    }
+
+    /**
+     * Same as {@link java.sql.Timestamp#from(Instant)} used by {@link JdbcStoreRepository}, the local date time in
+     * the default time zone.
+     */
+    private static LocalDateTime timestamp(Instant instant) {
+        return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link RedisStoreRepository}, both read and write the same keys and values.
+ * <p>
+ * The owner index ({@code convo.owner-index}), sliding expiration ({@code convo.sliding-expiration.enabled}) and
+ * optimistic locking ({@code convo.optimistic-locking}) are not supported, enabling any of them fails on construction.
+ */
+public class ReactiveRedisStoreRepository implements ReactiveStoreRepository {
+
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate;
+    private final ConversationCodec codec;
+    private final ConversationCompressor compressor;
+    private final RedisKeyStrategy keyStrategy;
+
+    public ReactiveRedisStoreRepository(ReactiveRedisTemplate<String, byte[]> redisTemplate, ConversationCodec codec,
+                                        ConversationCompressor compressor) {
+        this(redisTemplate, codec, compressor, RedisKeyStrategy.ID);
+    }
+
+    public ReactiveRedisStoreRepository(ReactiveRedisTemplate<String, byte[]> redisTemplate, ConversationCodec codec,
+                                        ConversationCompressor compressor, RedisKeyStrategy keyStrategy) {
+        this(redisTemplate, codec, compressor, keyStrategy, new ConvoProperties());
+    }
+
+    /**
+     * @param properties checked for the properties not supported by this store
+     */
+    public ReactiveRedisStoreRepository(ReactiveRedisTemplate<String, byte[]> redisTemplate, ConversationCodec codec,
+                                        ConversationCompressor compressor, RedisKeyStrategy keyStrategy,
+                                        ConvoProperties properties) {
+        Util.requireReactiveSupported(properties);
+        this.redisTemplate = redisTemplate;
+        this.codec = codec;
+        this.compressor = compressor;
+        this.keyStrategy = keyStrategy;
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> Mono<Void> save(T t) {
+        return save(t, SaveContext.UNKNOWN);
+    }
+
+    /**
+     * Sets the value as {@link RedisStoreRepository} does, or runs the same save script when a revision is expected.
+     */
+    @Override
+    public <T extends AbstractConversationHolder> Mono<Void> save(T t, SaveContext context) {
+        if (context.expectedRevision() == null) {
+            return Mono.fromSupplier(() -> compressor.compress(codec.encode(t)))
+                    .flatMap(value -> redisTemplate.opsForValue().set(keyStrategy.key(t.id, t.getClass()), value,
+                            Util.getTimeToLive(t)))
+                    .then();
+        }
+        return Mono.fromSupplier(() -> RedisStoreRepository.saveScriptArgs(t, context,
+                        compressor.compress(codec.encode(t))))
+                .flatMap(args -> redisTemplate.execute(RedisStoreRepository.SAVE_SCRIPT,
+                        RedisStoreRepository.saveScriptKeys(keyStrategy, t), args).next())
+                .doOnNext(result -> RedisStoreRepository.checkSaveResult(t, context, result))
+                .then();
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> Mono<T> findById(String id, Class<T> clazz) {
+        return redisTemplate.opsForValue().get(keyStrategy.key(id, clazz))
+                .map(it -> codec.decode(compressor.decompress(it), clazz));
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> Mono<Void> delete(T it) {
+        return redisTemplate.delete(RedisStoreRepository.saveScriptKeys(keyStrategy, it).toArray(String[]::new)).then();
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link StoreRepository}, used by
+ * {@link com.github.mhewedy.convo.ReactiveConversationRepository}.
+ */
+public interface ReactiveStoreRepository {
+
+    <T extends AbstractConversationHolder> Mono<Void> save(T t);
+
+    /**
+     * Same as {@link #save(AbstractConversationHolder)}, with hints the implementation can use to save round trips.
+     */
+    default <T extends AbstractConversationHolder> Mono<Void> save(T t, SaveContext context) {
+        return save(t);
+    }
+
+    /**
+     * @return the conversation, or empty if not found
+     */
+    <T extends AbstractConversationHolder> Mono<T> findById(String id, Class<T> clazz);
+
+    <T extends AbstractConversationHolder> Mono<Void> delete(T it);
+}
@@ -0,0 +1,391 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationConflictException;
+import com.github.mhewedy.convo.ConversationException;
+import com.github.mhewedy.convo.ConversationMetadata;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Redis store that keeps each conversation in a hash with one hash field per step, so saving a conversation
+ * that was loaded in the same flow writes only the updated step and the following ones instead of the whole
+ * conversation.
+ * <p>
+ * The hash has the following fields:
+ *
+ * <ul>
+ *     <li>{@code class}, {@code id}, {@code ownerId}, {@code version}, {@code revision}: the conversation metadata</li>
+ *     <li>{@code step:N}: the field of step N encoded by the {@link ConversationCodec} and compressed by the
+ *     {@link ConversationCompressor} if large enough, absent when the field is null</li>
+ * </ul>
+ *
+ * <p>
+ * On partial save, the metadata and the updated step are written and the fields of the following steps are removed.
+ * The partial save is done by a script that only applies if the hash still exists, otherwise the whole conversation
+ * is written.
+ * </p>
+ * <p>
+ * The partial save is only done when the steps before the updated step are known to be unchanged since the
+ * conversation was loaded (see {@link SaveContext#previousStepsUnchanged()}), so the stored conversation is always
+ * the same as with the other stores. Otherwise, for example when a previous step is cleared (set to null), or for
+ * the {@link com.github.mhewedy.convo.annotations.TrackUpdatedSteps} conversations, whose loaded values are not
+ * captured, the whole conversation is written.
+ * </p>
+ * <p>
+ * The partial save is also only done when a revision is expected ({@code convo.optimistic-locking}), otherwise two
+ * concurrent saves could interleave their step writes (one writing a step after the steps cleared by the other), so
+ * that a stored step could follow a null step.
+ * </p>
+ * <p>
+ * The {@link AbstractConversationHolder#_expiresAt} of the read conversations is given by the time to live of the
+ * hash, read in the same pipeline.
+ * </p>
+ * <p>
+ * When a revision is expected (see {@link SaveContext#expectedRevision()}), the script fails if the existing hash has
+ * another {@code revision} field. As in the other stores, the owner is not checked on save.
+ * </p>
+ * <p>
+ * With sliding expiration ({@code convo.sliding-expiration.enabled}), the hash is expired in the same pipeline as it
+ * is read.
+ * </p>
+ */
+@Slf4j
+public class RedisHashStoreRepository implements StoreRepository {
+
+    private static final String CLASS = "class";
+    private static final String ID = "id";
+    private static final String OWNER_ID = "ownerId";
+    private static final String VERSION = "version";
+    private static final String REVISION = "revision";
+    private static final String STEP_PREFIX = "step:";
+
+    private static final String MODE_FULL = "full";
+    private static final String MODE_PARTIAL = "partial";
+
+    /**
+     * KEYS[1]: the conversation key
+     * ARGV[1]: mode (full or partial), ARGV[2]: ttl in millis, ARGV[3]: expected revision (empty if not checked),
+     * ARGV[4]: number of hash fields to set, followed by the fields and values to set, followed by the fields to
+     * delete.
+     * <p>
+     * Returns -1 if the conversation exists with another revision, 0 if the mode is partial and the conversation
+     * doesn't exist, 1 otherwise.
+     */
+    private static final RedisScript<Long> SAVE_SCRIPT = RedisScript.of("""
+            if ARGV[3] ~= '' and redis.call('EXISTS', KEYS[1]) == 1 then
+                if (redis.call('HGET', KEYS[1], 'revision') or '0') ~= ARGV[3] then return -1 end
+            end
+            if ARGV[1] == 'partial' then
+                if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end
+            else
+                redis.call('DEL', KEYS[1])
+            end
+            local i = 5
+            for n = 1, tonumber(ARGV[4]) do
+                redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+                i = i + 2
+            end
+            while i <= #ARGV do
+                redis.call('HDEL', KEYS[1], ARGV[i])
+                i = i + 1
+            end
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private static final RedisSerializer<Long> RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    private static final long REVISION_CONFLICT = -1;
+    private static final long NOT_FOUND = 0;
+
+    private final StringRedisTemplate redisTemplate;
+    private final ConversationCodec codec;
+    private final ConversationCompressor compressor;
+    private final RedisKeyStrategy keyStrategy;
+    private final RedisOwnerIndex ownerIndex;
+    private final boolean slidingExpiration;
+
+    public RedisHashStoreRepository(StringRedisTemplate redisTemplate, ConversationCodec codec,
+                                    ConversationCompressor compressor) {
+        this(redisTemplate, codec, compressor, RedisKeyStrategy.ID, new ConvoProperties());
+    }
+
+    /**
+     * @param properties to enable the owner index ({@code convo.owner-index}) and the sliding expiration
+     *                   ({@code convo.sliding-expiration.enabled})
+     */
+    public RedisHashStoreRepository(StringRedisTemplate redisTemplate, ConversationCodec codec,
+                                    ConversationCompressor compressor, RedisKeyStrategy keyStrategy,
+                                    ConvoProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.codec = codec;
+        this.compressor = compressor;
+        this.keyStrategy = properties.getOwnerIndex() ? RedisOwnerIndex.rejectingIndexKeys(keyStrategy) : keyStrategy;
+        this.ownerIndex = properties.getOwnerIndex() ? new RedisOwnerIndex(redisTemplate, keyStrategy) : null;
+        this.slidingExpiration = properties.getSlidingExpiration().getEnabled();
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t) {
+        save(t, SaveContext.UNKNOWN);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t, SaveContext context) {
+        var metadata = ConversationMetadata.of(t);
+
+        t._expiresAt = Instant.now().plus(metadata.getTimeToLive());
+        if (context.existing() && context.previousStepsUnchanged() && context.expectedRevision() != null) {
+            log.trace("saving step: {} of conversation with id: {}", context.updatedStep(), t.id);
+            int firstStep = context.updatedStep() == 0 ? metadata.getStepCount() + 1 : context.updatedStep();
+            if (runSaveScript(t, metadata, MODE_PARTIAL, firstStep, context.expectedRevision()) == NOT_FOUND) {
+                log.debug("conversation not found: {}, saving the whole conversation", t.id);
+                runSaveScript(t, metadata, MODE_FULL, 1, context.expectedRevision());
+            }
+        } else {
+            runSaveScript(t, metadata, MODE_FULL, 1, context.expectedRevision());
+        }
+        if (ownerIndex != null) {
+            ownerIndex.add(t);
+        }
+    }
+
+    /**
+     * Reads the hash with its time to live in a single pipeline, resetting the time to live first with sliding
+     * expiration.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends AbstractConversationHolder> Optional<T> findById(String id, Class<T> clazz) {
+        var key = bytes(keyStrategy.key(id, clazz));
+        long timeToLive = ConversationMetadata.of(clazz).getTimeToLive().toMillis();
+        // the raw pipeline results, since the template would deserialize the hash as strings
+        var results = redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            connection.openPipeline();
+            if (slidingExpiration) {
+                connection.keyCommands().pExpire(key, timeToLive);
+            }
+            connection.hashCommands().hGetAll(key);
+            connection.keyCommands().pTtl(key);
+            return connection.closePipeline();
+        });
+
+        int offset = slidingExpiration ? 1 : 0;
+        var entries = (Map<byte[], byte[]>) results.get(offset);
+        if (entries == null || entries.isEmpty()) {
+            return Optional.empty();
+        }
+        var t = fromHash(entries, (Long) results.get(offset + 1), clazz);
+        if (slidingExpiration && ownerIndex != null) {
+            ownerIndex.add(t);
+        }
+        return Optional.of(t);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void delete(T it) {
+        redisTemplate.delete(keyStrategy.key(it.id, it.getClass()));
+        if (ownerIndex != null) {
+            ownerIndex.removeAll(List.of(it));
+        }
+    }
+
+    /**
+     * Writes all the conversations in full in a single pipeline, after making sure the script is loaded.
+     */
+    @Override
+    public <T extends AbstractConversationHolder> void saveAll(Collection<T> ts) {
+        if (ts.isEmpty()) {
+            return;
+        }
+        var sha = bytes(SAVE_SCRIPT.getSha1());
+        redisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptingCommands().scriptLoad(bytes(SAVE_SCRIPT.getScriptAsString())));
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (T t : ts) {
+                List<byte[]> keysAndArgs = new ArrayList<>();
+                keysAndArgs.add(bytes(keyStrategy.key(t.id, t.getClass())));
+                keysAndArgs.addAll(saveScriptArgs(t, ConversationMetadata.of(t), MODE_FULL, 1, null));
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 1, keysAndArgs.toArray(byte[][]::new));
+            }
+            return null;
+        });
+        if (ownerIndex != null) {
+            ownerIndex.addAll(ts);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends AbstractConversationHolder> List<T> findAllById(Collection<String> ids, Class<T> clazz) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        // pipelined on the connection, so the results are not deserialized by the template
+        var results = redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            connection.openPipeline();
+            ids.forEach(id -> {
+                var key = bytes(keyStrategy.key(id, clazz));
+                connection.hashCommands().hGetAll(key);
+                connection.keyCommands().pTtl(key);
+            });
+            return connection.closePipeline();
+        });
+
+        List<T> ret = new ArrayList<>(ids.size());
+        for (int i = 0; results != null && i < results.size(); i += 2) {
+            var entries = (Map<byte[], byte[]>) results.get(i);
+            if (entries != null && !entries.isEmpty()) {
+                ret.add(fromHash(entries, (Long) results.get(i + 1), clazz));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void deleteAll(Collection<T> ts) {
+        if (!ts.isEmpty()) {
+            redisTemplate.delete(ts.stream().map(it -> keyStrategy.key(it.id, it.getClass())).toList());
+            if (ownerIndex != null) {
+                ownerIndex.removeAll(ts);
+            }
+        }
+    }
+
+    /**
+     * @see RedisOwnerIndex
+     */
+    @Override
+    public <T extends AbstractConversationHolder> List<String> findIdsByOwner(String ownerId, Class<T> clazz) {
+        if (ownerIndex == null) {
+            throw new UnsupportedOperationException("owner index is not enabled, set convo.owner-index=true");
+        }
+        return ownerIndex.findIds(ownerId, clazz);
+    }
+
+    /**
+     * @return the script result
+     * @throws ConversationConflictException if the conversation exists with another revision than the expected one
+     */
+    private <T extends AbstractConversationHolder> long runSaveScript(T t, ConversationMetadata metadata, String mode,
+                                                                      int firstStep, Long expectedRevision) {
+        var args = saveScriptArgs(t, metadata, mode, firstStep, expectedRevision);
+        Long result = redisTemplate.execute(SAVE_SCRIPT, RedisSerializer.byteArray(), RESULT_SERIALIZER,
+                List.of(keyStrategy.key(t.id, t.getClass())), args.toArray());
+        checkSaveResult(t, expectedRevision, result);
+        return result == null ? NOT_FOUND : result;
+    }
+
+    private static void checkSaveResult(AbstractConversationHolder t, Long expectedRevision, Long result) {
+        if (result != null && result == REVISION_CONFLICT) {
+            throw new ConversationConflictException(t.id, expectedRevision);
+        }
+    }
+
+    /**
+     * @return the script arguments to write the metadata and the steps starting from {@code firstStep},
+     * null steps are removed from the hash.
+     */
+    private <T extends AbstractConversationHolder> List<byte[]> saveScriptArgs(T t, ConversationMetadata metadata,
+                                                                               String mode, int firstStep,
+                                                                               Long expectedRevision) {
+        List<byte[]> fieldsToSet = new ArrayList<>();
+        List<byte[]> fieldsToDelete = new ArrayList<>();
+
+        addField(fieldsToSet, fieldsToDelete, CLASS, t.getClass().getName());
+        addField(fieldsToSet, fieldsToDelete, ID, t.id);
+        addField(fieldsToSet, fieldsToDelete, OWNER_ID, t._ownerId);
+        addField(fieldsToSet, fieldsToDelete, VERSION, t._version);
+        addField(fieldsToSet, fieldsToDelete, REVISION, String.valueOf(t._revision));
+
+        for (int step = firstStep; step <= metadata.getStepCount(); step++) {
+            var value = metadata.getField(step).get(t);
+            if (value == null) {
+                fieldsToDelete.add(bytes(STEP_PREFIX + step));
+            } else {
+                fieldsToSet.add(bytes(STEP_PREFIX + step));
+                fieldsToSet.add(compressor.compress(codec.encode(value)));
+            }
+        }
+
+        List<byte[]> args = new ArrayList<>(fieldsToSet.size() + fieldsToDelete.size() + 4);
+        args.add(bytes(mode));
+        args.add(bytes(String.valueOf(metadata.getTimeToLive().toMillis())));
+        args.add(bytes(expectedRevision == null ? "" : String.valueOf(expectedRevision)));
+        args.add(bytes(String.valueOf(fieldsToSet.size() / 2)));
+        args.addAll(fieldsToSet);
+        args.addAll(fieldsToDelete);
+        return args;
+    }
+
+    /**
+     * @param timeToLive the remaining time to live of the hash in millis, negative if it has none
+     */
+    private <T extends AbstractConversationHolder> T fromHash(Map<byte[], byte[]> hash, Long timeToLive,
+                                                              Class<T> clazz) {
+        Map<String, byte[]> entries = new HashMap<>(hash.size());
+        hash.forEach((key, value) -> entries.put(string(key), value));
+
+        var metadata = ConversationMetadata.of(clazz);
+        var className = string(entries.get(CLASS));
+        if (!clazz.getName().equals(className)) {
+            throw new ConversationException("conversation stored with different class",
+                    Map.of("expected", clazz.getName(), "actual", className + ""));
+        }
+
+        T t = BeanUtils.instantiateClass(clazz);
+        t.id = string(entries.get(ID));
+        t._ownerId = string(entries.get(OWNER_ID));
+        t._version = string(entries.get(VERSION));
+        var revision = string(entries.get(REVISION));
+        t._revision = revision == null ? 0 : Long.parseLong(revision);
+        if (timeToLive != null && timeToLive >= 0) {
+            t._expiresAt = Instant.now().plusMillis(timeToLive);
+        }
+
+        for (int step = 1; step <= metadata.getStepCount(); step++) {
+            var field = metadata.getField(step);
+            var value = entries.get(STEP_PREFIX + step);
+            if (value != null) {
+                field.set(t, codec.decode(compressor.decompress(value), field.getGenericType()));
+            }
+        }
+        return t;
+    }
+
+    private static void addField(List<byte[]> fieldsToSet, List<byte[]> fieldsToDelete, String name, String value) {
+        if (value == null) {
+            fieldsToDelete.add(bytes(name));
+        } else {
+            fieldsToSet.add(bytes(name));
+            fieldsToSet.add(bytes(value));
+        }
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
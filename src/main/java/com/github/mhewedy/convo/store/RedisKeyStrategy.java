@@ -0,0 +1,57 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+
+/**
+ * Maps a conversation to its key in the Redis stores.
+ * <p>
+ * The other keys of a conversation (e.g. its {@link RedisStoreRepository} meta key) are suffixes of this key,
+ * so they are in the same Redis Cluster slot when the key has a hash tag ({@code {...}}).
+ */
+public interface RedisKeyStrategy {
+
+    /**
+     * The conversation id as is, the layout of conversations stored before the key strategy was introduced.
+     */
+    RedisKeyStrategy ID = (id, clazz) -> id;
+
+    String key(String id, Class<? extends AbstractConversationHolder> clazz);
+
+    /**
+     * @return the key of the index of the conversations of the owner, used when {@code convo.owner-index} is enabled
+     */
+    default String ownerIndexKey(String ownerId) {
+        return ownerIndexKeyPrefix() + ownerId;
+    }
+
+    /**
+     * @return the prefix of the owner index keys. When {@code convo.owner-index} is enabled, the stores reject the
+     * conversations whose keys start with it, so a conversation id can't overwrite the index of an owner.
+     */
+    default String ownerIndexKeyPrefix() {
+        return "owner:";
+    }
+
+    /**
+     * @param prefix       prepended to all the keys, e.g. to share a Redis with other applications
+     * @param includeClass whether the simple name of the conversation class is part of the key, so conversations of
+     *                     different classes can have the same id
+     * @param hashTag      whether the id is wrapped in a hash tag ({@code {id}}), so all the keys of a conversation
+     *                     are in the same Redis Cluster slot
+     * @return keys in the form {@code <prefix><class>:{<id>}}, and {@code <prefix>owner:<owner id>} for the owner index
+     */
+    static RedisKeyStrategy of(String prefix, boolean includeClass, boolean hashTag) {
+        String safePrefix = prefix == null ? "" : prefix;
+        return new RedisKeyStrategy() {
+            @Override
+            public String key(String id, Class<? extends AbstractConversationHolder> clazz) {
+                return safePrefix + (includeClass ? clazz.getSimpleName() + ":" : "") + (hashTag ? "{" + id + "}" : id);
+            }
+
+            @Override
+            public String ownerIndexKeyPrefix() {
+                return safePrefix + "owner:";
+            }
+        };
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index of the conversations of each owner used by the Redis stores when {@code convo.owner-index} is enabled.
+ * <p>
+ * Each owner has a sorted set ({@link RedisKeyStrategy#ownerIndexKey(String)}) of {@code <class name>:<id>} members
+ * scored by the time the conversation expires, so the index expires together with the conversations: the expired
+ * members are skipped on read and removed on write, and the set expires with its longest living conversation.
+ * <p>
+ * The set is written by a separate call after the conversation is saved, since on Redis Cluster it is in another
+ * slot than the conversation.
+ */
+class RedisOwnerIndex {
+
+    /**
+     * KEYS[1]: the owner index key
+     * ARGV[1]: the member, ARGV[2]: expiry time in epoch millis, ARGV[3]: now in epoch millis, ARGV[4]: ttl in millis
+     */
+    private static final RedisScript<Long> ADD_SCRIPT = RedisScript.of("""
+            redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[3])
+            redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])
+            if redis.call('PTTL', KEYS[1]) < tonumber(ARGV[4]) then
+                redis.call('PEXPIRE', KEYS[1], ARGV[4])
+            end
+            return 1
+            """, Long.class);
+
+    private static final RedisSerializer<Long> RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    private final RedisTemplate<String, ?> redisTemplate;
+    private final RedisKeyStrategy keyStrategy;
+
+    RedisOwnerIndex(RedisTemplate<String, ?> redisTemplate, RedisKeyStrategy keyStrategy) {
+        this.redisTemplate = redisTemplate;
+        this.keyStrategy = keyStrategy;
+    }
+
+    /**
+     * @return the key strategy failing for the conversations whose keys (or meta keys) start with the
+     * {@link RedisKeyStrategy#ownerIndexKeyPrefix()}, e.g. the id {@code owner:<owner id>} with the
+     * {@link RedisKeyStrategy#ID} strategy
+     */
+    static RedisKeyStrategy rejectingIndexKeys(RedisKeyStrategy keyStrategy) {
+        return new RedisKeyStrategy() {
+            @Override
+            public String key(String id, Class<? extends AbstractConversationHolder> clazz) {
+                var key = keyStrategy.key(id, clazz);
+                if ((key + RedisStoreRepository.META_SUFFIX).startsWith(keyStrategy.ownerIndexKeyPrefix())) {
+                    throw new ConversationException("conversation id is reserved for the owner index",
+                            "conversationId", id);
+                }
+                return key;
+            }
+
+            @Override
+            public String ownerIndexKey(String ownerId) {
+                return keyStrategy.ownerIndexKey(ownerId);
+            }
+
+            @Override
+            public String ownerIndexKeyPrefix() {
+                return keyStrategy.ownerIndexKeyPrefix();
+            }
+        };
+    }
+
+    void add(AbstractConversationHolder t) {
+        if (t._ownerId != null) {
+            redisTemplate.execute(ADD_SCRIPT, RedisSerializer.byteArray(), RESULT_SERIALIZER,
+                    List.of(keyStrategy.ownerIndexKey(t._ownerId)), addScriptArgs(t, Instant.now()).toArray());
+        }
+    }
+
+    /**
+     * Adds the owned conversations in a single pipeline, after making sure the script is loaded.
+     */
+    void addAll(Collection<? extends AbstractConversationHolder> ts) {
+        var owned = ts.stream().filter(it -> it._ownerId != null).toList();
+        if (owned.isEmpty()) {
+            return;
+        }
+        var sha = bytes(ADD_SCRIPT.getSha1());
+        redisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptingCommands().scriptLoad(bytes(ADD_SCRIPT.getScriptAsString())));
+        var now = Instant.now();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (var t : owned) {
+                List<byte[]> keysAndArgs = new ArrayList<>();
+                keysAndArgs.add(bytes(keyStrategy.ownerIndexKey(t._ownerId)));
+                keysAndArgs.addAll(addScriptArgs(t, now));
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 1, keysAndArgs.toArray(byte[][]::new));
+            }
+            return null;
+        });
+    }
+
+    void removeAll(Collection<? extends AbstractConversationHolder> ts) {
+        var owned = ts.stream().filter(it -> it._ownerId != null).toList();
+        if (owned.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            owned.forEach(t -> connection.zSetCommands()
+                    .zRem(bytes(keyStrategy.ownerIndexKey(t._ownerId)), bytes(member(t.id, t.getClass()))));
+            return null;
+        });
+    }
+
+    /**
+     * @return the ids of the non expired conversations of the class owned by the owner
+     */
+    List<String> findIds(String ownerId, Class<? extends AbstractConversationHolder> clazz) {
+        var now = (double) Instant.now().toEpochMilli();
+        Set<byte[]> members = redisTemplate.execute((RedisCallback<Set<byte[]>>) connection -> connection.zSetCommands()
+                .zRangeByScore(bytes(keyStrategy.ownerIndexKey(ownerId)), Range.rightUnbounded(Range.Bound.exclusive(now))));
+
+        var prefix = clazz.getName() + ":";
+        List<String> ids = new ArrayList<>();
+        for (var member : members == null ? Set.<byte[]>of() : members) {
+            var str = new String(member, StandardCharsets.UTF_8);
+            if (str.startsWith(prefix)) {
+                ids.add(str.substring(prefix.length()));
+            }
+        }
+        return ids;
+    }
+
+    private static List<byte[]> addScriptArgs(AbstractConversationHolder t, Instant now) {
+        long ttl = Util.getTimeToLive(t).toMillis();
+        return List.of(
+                bytes(member(t.id, t.getClass())),
+                bytes(String.valueOf(now.toEpochMilli() + ttl)),
+                bytes(String.valueOf(now.toEpochMilli())),
+                bytes(String.valueOf(ttl)));
+    }
+
+    private static String member(String id, Class<?> clazz) {
+        return clazz.getName() + ":" + id;
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
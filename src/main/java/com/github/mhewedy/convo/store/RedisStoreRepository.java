@@ -1,31 +1,256 @@
 package com.github.mhewedy.convo.store;
 
 import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationConflictException;
+import com.github.mhewedy.convo.ConversationMetadata;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import tools.jackson.databind.json.JsonMapper;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
+/**
+ * Redis store that keeps each conversation as a single value, encoded by the {@link ConversationCodec}.
+ * <p>
+ * The conversation is written by a plain {@code SET} with its time to live. When a revision is expected (see
+ * {@link SaveContext#expectedRevision()}), it is written instead by a script that checks the stored revision and
+ * sets the value in a single round trip, failing if the conversation is stored with another revision. The revision
+ * is kept in a hash ({@code <key>}{@value #META_SUFFIX}) next to the value, with the same time to live, since the
+ * value is not readable by the script. As in the other stores, the owner is not checked on save.
+ * <p>
+ * The keys are given by the {@link RedisKeyStrategy}, which should use hash tags on Redis Cluster, so the script
+ * keys are in the same slot.
+ * <p>
+ * With sliding expiration ({@code convo.sliding-expiration.enabled}), the value is read by {@code GETEX}, which
+ * resets its time to live, and the meta hash is expired in the same pipeline.
+ */
 public class RedisStoreRepository implements StoreRepository {
 
-    private final RedisTemplate<String, AbstractConversationHolder> redisTemplate;
+    static final String META_SUFFIX = ":meta";
 
+    /**
+     * KEYS[1]: the conversation key, KEYS[2]: the meta key
+     * ARGV[1]: the conversation value, ARGV[2]: ttl in millis, ARGV[3]: expected revision, ARGV[4]: new revision
+     * <p>
+     * Returns -1 if the conversation exists with another revision, 1 otherwise.
+     */
+    static final RedisScript<Long> SAVE_SCRIPT = RedisScript.of("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+                if (redis.call('HGET', KEYS[2], 'revision') or '0') ~= ARGV[3] then return -1 end
+            end
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            redis.call('HSET', KEYS[2], 'revision', ARGV[4])
+            redis.call('PEXPIRE', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private static final long REVISION_CONFLICT = -1;
+
+    private static final RedisSerializer<Long> RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final ConversationCodec codec;
+    private final ConversationCompressor compressor;
+    private final RedisKeyStrategy keyStrategy;
+    private final RedisOwnerIndex ownerIndex;
+    private final boolean slidingExpiration;
+
+    /**
+     * Stores the conversations as json, uncompressed and keyed by their id, on the connection of the given template,
+     * as the previous versions did.
+     *
+     * @deprecated use the constructor that accepts the {@link ConversationCodec}
+     */
+    @Deprecated
     public RedisStoreRepository(RedisTemplate<String, AbstractConversationHolder> redisTemplate) {
+        this(bytesTemplate(redisTemplate.getRequiredConnectionFactory()), new JacksonConversationCodec(new JsonMapper()),
+                ConversationCompressor.disabled());
+    }
+
+    public RedisStoreRepository(RedisTemplate<String, byte[]> redisTemplate, ConversationCodec codec,
+                                ConversationCompressor compressor) {
+        this(redisTemplate, codec, compressor, RedisKeyStrategy.ID, new ConvoProperties());
+    }
+
+    /**
+     * @param properties to enable the owner index ({@code convo.owner-index}) and the sliding expiration
+     *                   ({@code convo.sliding-expiration.enabled})
+     */
+    public RedisStoreRepository(RedisTemplate<String, byte[]> redisTemplate, ConversationCodec codec,
+                                ConversationCompressor compressor, RedisKeyStrategy keyStrategy,
+                                ConvoProperties properties) {
         this.redisTemplate = redisTemplate;
+        this.codec = codec;
+        this.compressor = compressor;
+        this.keyStrategy = properties.getOwnerIndex() ? RedisOwnerIndex.rejectingIndexKeys(keyStrategy) : keyStrategy;
+        this.ownerIndex = properties.getOwnerIndex() ? new RedisOwnerIndex(redisTemplate, keyStrategy) : null;
+        this.slidingExpiration = properties.getSlidingExpiration().getEnabled();
     }
 
     @Override
     public <T extends AbstractConversationHolder> void save(T t) {
-        redisTemplate.opsForValue().set(t.id, t, Util.getTimeToLive(t));
+        save(t, SaveContext.UNKNOWN);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t, SaveContext context) {
+        var value = compressor.compress(codec.encode(t));
+        if (context.expectedRevision() == null) {
+            redisTemplate.opsForValue().set(keyStrategy.key(t.id, t.getClass()), value, Util.getTimeToLive(t));
+        } else {
+            var args = saveScriptArgs(t, context, value);
+            Long result = redisTemplate.execute(SAVE_SCRIPT, RedisSerializer.byteArray(), RESULT_SERIALIZER,
+                    saveScriptKeys(keyStrategy, t), args.toArray());
+            checkSaveResult(t, context, result);
+        }
+        if (ownerIndex != null) {
+            ownerIndex.add(t);
+        }
     }
 
     @Override
     public <T extends AbstractConversationHolder> Optional<T> findById(String id, Class<T> clazz) {
-        var holder = redisTemplate.opsForValue().get(id);
-        return Optional.ofNullable(clazz.cast(holder));
+        if (slidingExpiration) {
+            return findAndTouch(id, clazz);
+        }
+        var value = redisTemplate.opsForValue().get(keyStrategy.key(id, clazz));
+        return Optional.ofNullable(value).map(it -> codec.decode(compressor.decompress(it), clazz));
+    }
+
+    private <T extends AbstractConversationHolder> Optional<T> findAndTouch(String id, Class<T> clazz) {
+        var key = keyStrategy.key(id, clazz);
+        var timeToLive = ConversationMetadata.of(clazz).getTimeToLive();
+        var results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().getEx(bytes(key), Expiration.from(timeToLive));
+            connection.keyCommands().pExpire(bytes(key + META_SUFFIX), timeToLive.toMillis());
+            return null;
+        }, RedisSerializer.byteArray());
+
+        var t = Optional.ofNullable((byte[]) results.get(0)).map(it -> codec.decode(compressor.decompress(it), clazz));
+        if (ownerIndex != null) {
+            t.ifPresent(ownerIndex::add);
+        }
+        return t;
     }
 
     @Override
     public <T extends AbstractConversationHolder> void delete(T it) {
-        redisTemplate.delete(it.id);
+        redisTemplate.delete(saveScriptKeys(keyStrategy, it));
+        if (ownerIndex != null) {
+            ownerIndex.removeAll(List.of(it));
+        }
+    }
+
+    /**
+     * Sets all the conversations with their time to live in a single pipeline, the revision is not checked.
+     */
+    @Override
+    public <T extends AbstractConversationHolder> void saveAll(Collection<T> ts) {
+        if (ts.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (T t : ts) {
+                connection.stringCommands().set(bytes(keyStrategy.key(t.id, t.getClass())),
+                        compressor.compress(codec.encode(t)), Expiration.from(Util.getTimeToLive(t)),
+                        RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+        if (ownerIndex != null) {
+            ownerIndex.addAll(ts);
+        }
+    }
+
+    /**
+     * Reads all the conversations with a single MGET, split by slot by the driver on Redis Cluster.
+     */
+    @Override
+    public <T extends AbstractConversationHolder> List<T> findAllById(Collection<String> ids, Class<T> clazz) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        var values = redisTemplate.opsForValue().multiGet(ids.stream().map(id -> keyStrategy.key(id, clazz)).toList());
+        List<T> ret = new ArrayList<>(ids.size());
+        if (values != null) {
+            values.stream().filter(Objects::nonNull)
+                    .forEach(it -> ret.add(codec.decode(compressor.decompress(it), clazz)));
+        }
+        return ret;
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void deleteAll(Collection<T> ts) {
+        if (!ts.isEmpty()) {
+            redisTemplate.delete(ts.stream().flatMap(it -> saveScriptKeys(keyStrategy, it).stream()).toList());
+            if (ownerIndex != null) {
+                ownerIndex.removeAll(ts);
+            }
+        }
+    }
+
+    /**
+     * @see RedisOwnerIndex
+     */
+    @Override
+    public <T extends AbstractConversationHolder> List<String> findIdsByOwner(String ownerId, Class<T> clazz) {
+        if (ownerIndex == null) {
+            throw new UnsupportedOperationException("owner index is not enabled, set convo.owner-index=true");
+        }
+        return ownerIndex.findIds(ownerId, clazz);
+    }
+
+    static List<String> saveScriptKeys(RedisKeyStrategy keyStrategy, AbstractConversationHolder t) {
+        var key = keyStrategy.key(t.id, t.getClass());
+        return List.of(key, key + META_SUFFIX);
+    }
+
+    /**
+     * @param context with the expected revision
+     */
+    static List<byte[]> saveScriptArgs(AbstractConversationHolder t, SaveContext context, byte[] value) {
+        return List.of(
+                value,
+                bytes(String.valueOf(Util.getTimeToLive(t).toMillis())),
+                bytes(String.valueOf(context.expectedRevision())),
+                bytes(String.valueOf(t._revision)));
+    }
+
+    /**
+     * @throws ConversationConflictException if the conversation is stored with another revision than the expected one
+     */
+    static void checkSaveResult(AbstractConversationHolder t, SaveContext context, Long result) {
+        if (result != null && result == REVISION_CONFLICT) {
+            throw new ConversationConflictException(t.id, context.expectedRevision());
+        }
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static RedisTemplate<String, byte[]> bytesTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.afterPropertiesSet();
+        return template;
     }
 }
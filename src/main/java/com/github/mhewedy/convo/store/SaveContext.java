@@ -0,0 +1,33 @@
+package com.github.mhewedy.convo.store;
+
+/**
+ * Hints passed by the {@link com.github.mhewedy.convo.ConversationRepository} to the store when saving a conversation.
+ *
+ * @param existing               true if the conversation was loaded from the store in the current flow and so the
+ *                               store can assume it already exists, false if it is unknown whether it exists or not.
+ * @param updatedStep            the step updated since the conversation was loaded, 0 if no step is updated.
+ *                               Steps after it have been nullified.
+ * @param expectedRevision       the revision the stored conversation should have for the save to apply, null if the
+ *                               revision is not checked. The stores that support it write the conversation only if
+ *                               its stored revision (0 if not stored or expired) is the expected one, and throw
+ *                               {@link com.github.mhewedy.convo.ConversationConflictException} otherwise.
+ * @param previousStepsUnchanged true if the steps before the updated step (all the steps if no step is updated) are
+ *                               known to hold the values they were loaded with, so a store may write only the updated
+ *                               step and the following ones. False if any of them changed or it is unknown.
+ */
+public record SaveContext(boolean existing, int updatedStep, Long expectedRevision, boolean previousStepsUnchanged) {
+
+    public static final SaveContext UNKNOWN = new SaveContext(false, 0);
+
+    public SaveContext(boolean existing, int updatedStep) {
+        this(existing, updatedStep, null);
+    }
+
+    public SaveContext(boolean existing, int updatedStep, Long expectedRevision) {
+        this(existing, updatedStep, expectedRevision, false);
+    }
+
+    public SaveContext withoutRevisionCheck() {
+        return new SaveContext(existing, updatedStep, null, previousStepsUnchanged);
+    }
+}
@@ -2,13 +2,53 @@ package com.github.mhewedy.convo.store;
 
 import com.github.mhewedy.convo.AbstractConversationHolder;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface StoreRepository {
 
     <T extends AbstractConversationHolder> void save(T t);
 
+    /**
+     * Same as {@link #save(AbstractConversationHolder)}, with hints the implementation can use to save round trips.
+     */
+    default <T extends AbstractConversationHolder> void save(T t, SaveContext context) {
+        save(t);
+    }
+
     <T extends AbstractConversationHolder> Optional<T> findById(String id, Class<T> clazz);
 
     <T extends AbstractConversationHolder> void delete(T it);
+
+    /**
+     * Saves all the conversations, implementations should override it to save them in fewer round trips.
+     */
+    default <T extends AbstractConversationHolder> void saveAll(Collection<T> ts) {
+        ts.forEach(this::save);
+    }
+
+    /**
+     * @return the conversations found, missing ids are skipped
+     */
+    default <T extends AbstractConversationHolder> List<T> findAllById(Collection<String> ids, Class<T> clazz) {
+        List<T> ret = new ArrayList<>(ids.size());
+        ids.forEach(id -> findById(id, clazz).ifPresent(ret::add));
+        return ret;
+    }
+
+    default <T extends AbstractConversationHolder> void deleteAll(Collection<T> ts) {
+        ts.forEach(this::delete);
+    }
+
+    /**
+     * @return the ids of the non expired conversations of the class owned by the owner, by the owner index
+     * maintained on save when {@code convo.owner-index} is enabled. The index may still return conversations
+     * that have been deleted or saved for another owner since.
+     * @throws UnsupportedOperationException if the store has no owner index
+     */
+    default <T extends AbstractConversationHolder> List<String> findIdsByOwner(String ownerId, Class<T> clazz) {
+        throw new UnsupportedOperationException("owner index is not supported by " + getClass().getSimpleName());
+    }
 }
@@ -1,23 +1,32 @@
 package com.github.mhewedy.convo.store;
 
 import com.github.mhewedy.convo.AbstractConversationHolder;
-import com.github.mhewedy.convo.annotations.TimeToLive;
+import com.github.mhewedy.convo.ConversationMetadata;
+import com.github.mhewedy.convo.config.ConvoProperties;
 
 import java.time.Duration;
 
 class Util {
 
     public static <T extends AbstractConversationHolder> Duration getTimeToLive(T t) {
-        String ttlStr;
-        try {
-            if (t.getClass().isAnnotationPresent(TimeToLive.class)) {
-                ttlStr = t.getClass().getAnnotation(TimeToLive.class).duration();
-            } else {
-                ttlStr = (String) TimeToLive.class.getMethod("duration").getDefaultValue();
-            }
-            return Duration.parse(ttlStr);
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
+        return ConversationMetadata.of(t).getTimeToLive();
+    }
+
+    /**
+     * Fails on the properties not supported by the reactive stores, so they don't silently behave differently than
+     * the blocking stores on the same data.
+     *
+     * @throws IllegalStateException if any of these properties is enabled
+     */
+    static void requireReactiveSupported(ConvoProperties properties) {
+        requireDisabled(properties.getOwnerIndex(), "convo.owner-index");
+        requireDisabled(properties.getSlidingExpiration().getEnabled(), "convo.sliding-expiration.enabled");
+        requireDisabled(properties.getOptimisticLocking(), "convo.optimistic-locking");
+    }
+
+    static void requireDisabled(boolean enabled, String property) {
+        if (enabled) {
+            throw new IllegalStateException(property + " is not supported by the reactive stores");
         }
     }
 }
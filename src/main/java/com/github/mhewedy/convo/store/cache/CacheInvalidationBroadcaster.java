@@ -0,0 +1,20 @@
+package com.github.mhewedy.convo.store.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Notifies the {@link CachingStoreRepository} of the other nodes that a conversation has changed,
+ * so they drop their local copy.
+ *
+ * @see InProcessCacheInvalidationBroadcaster
+ * @see RedisCacheInvalidationBroadcaster
+ */
+public interface CacheInvalidationBroadcaster {
+
+    /**
+     * Publishes the key of the changed conversation to the listeners of the other nodes.
+     */
+    void publish(String key);
+
+    void subscribe(Consumer<String> listener);
+}
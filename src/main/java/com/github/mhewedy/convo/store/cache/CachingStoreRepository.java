@@ -0,0 +1,248 @@
+package com.github.mhewedy.convo.store.cache;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationMetadata;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import com.github.mhewedy.convo.metrics.ConversationMetrics;
+import com.github.mhewedy.convo.store.SaveContext;
+import com.github.mhewedy.convo.store.StoreRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps a bounded local copy of the conversations in front of another {@link StoreRepository},
+ * so reading a conversation that was read or saved recently on the same node doesn't hit the store.
+ * <p>
+ * Conversations are cached by (id, class) in their encoded form, so each read returns a new instance.
+ * A cached copy expires after the configured time to live, or earlier if the conversation's
+ * {@link com.github.mhewedy.convo.annotations.TimeToLive} is shorter or its stored copy expires before.
+ * Saving or deleting a conversation publishes its key through the {@link CacheInvalidationBroadcaster},
+ * so the other nodes drop their copy.
+ * <p>
+ * A conversation read from the store is cached only if it was not saved, deleted or invalidated while being read,
+ * so a slow read never replaces a newer copy. This is tracked by a generation counter per key, striped over
+ * {@value #GENERATION_STRIPES} counters, so an unrelated key sharing the stripe may only skip caching a read.
+ */
+@Slf4j
+public class CachingStoreRepository implements StoreRepository {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final StoreRepository delegate;
+    private final ConversationCodec codec;
+    private final CacheInvalidationBroadcaster broadcaster;
+    private final Duration timeToLive;
+    private final ConversationMetrics metrics;
+    /**
+     * Guarded by its own monitor, which is never held while calling the delegate or the broadcaster,
+     * so virtual threads are not pinned while waiting on the store.
+     */
+    private final Map<String, Entry> cache;
+    /**
+     * Bumped whenever a key is put by a save or evicted, guarded by the {@link #cache} monitor.
+     */
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    public CachingStoreRepository(StoreRepository delegate, ConversationCodec codec,
+                                  CacheInvalidationBroadcaster broadcaster, int maximumSize, Duration timeToLive) {
+        this(delegate, codec, broadcaster, maximumSize, timeToLive, ConversationMetrics.NOOP);
+    }
+
+    /**
+     * @param metrics records whether {@link #findById(String, Class)} finds the conversation in the cache
+     */
+    public CachingStoreRepository(StoreRepository delegate, ConversationCodec codec,
+                                  CacheInvalidationBroadcaster broadcaster, int maximumSize, Duration timeToLive,
+                                  ConversationMetrics metrics) {
+        this.delegate = delegate;
+        this.codec = codec;
+        this.broadcaster = broadcaster;
+        this.timeToLive = timeToLive;
+        this.metrics = metrics;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maximumSize;
+            }
+        };
+        broadcaster.subscribe(this::evict);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t) {
+        save(t, SaveContext.UNKNOWN);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void save(T t, SaveContext context) {
+        var key = key(t.id, t.getClass());
+        try {
+            delegate.save(t, context);
+        } catch (RuntimeException ex) {
+            evict(key);
+            throw ex;
+        }
+        broadcaster.publish(key);
+        put(key, t);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> Optional<T> findById(String id, Class<T> clazz) {
+        var key = key(id, clazz);
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null) {
+            if (Instant.now().isBefore(entry.expiresAt)) {
+                log.trace("conversation found in cache: {}", key);
+                metrics.recordCacheAccess(clazz, true);
+                return Optional.of(codec.decode(entry.value, clazz));
+            }
+            evict(key);
+        }
+        metrics.recordCacheAccess(clazz, false);
+        var generation = generation(key);
+        var value = delegate.findById(id, clazz);
+        value.ifPresent(it -> putIfUnchanged(key, it, generation));
+        return value;
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void delete(T t) {
+        var key = key(t.id, t.getClass());
+        evict(key);
+        delegate.delete(t);
+        evict(key);
+        broadcaster.publish(key);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void saveAll(Collection<T> ts) {
+        try {
+            delegate.saveAll(ts);
+        } catch (RuntimeException ex) {
+            ts.forEach(t -> evict(key(t.id, t.getClass())));
+            throw ex;
+        }
+        for (T t : ts) {
+            var key = key(t.id, t.getClass());
+            broadcaster.publish(key);
+            put(key, t);
+        }
+    }
+
+    /**
+     * Returns the cached conversations, and reads only the missing ones from the store.
+     */
+    @Override
+    public <T extends AbstractConversationHolder> List<T> findAllById(Collection<String> ids, Class<T> clazz) {
+        List<T> ret = new ArrayList<>(ids.size());
+        List<String> missing = new ArrayList<>();
+        Map<String, Long> missingGenerations = new LinkedHashMap<>();
+        var now = Instant.now();
+        for (var id : ids) {
+            Entry entry;
+            synchronized (cache) {
+                entry = cache.get(key(id, clazz));
+            }
+            if (entry != null && now.isBefore(entry.expiresAt)) {
+                ret.add(codec.decode(entry.value, clazz));
+            } else {
+                missing.add(id);
+                missingGenerations.put(id, generation(key(id, clazz)));
+            }
+        }
+        if (!missing.isEmpty()) {
+            var values = delegate.findAllById(missing, clazz);
+            values.forEach(it -> putIfUnchanged(key(it.id, clazz), it, missingGenerations.get(it.id)));
+            ret.addAll(values);
+        }
+        return ret;
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> List<String> findIdsByOwner(String ownerId, Class<T> clazz) {
+        return delegate.findIdsByOwner(ownerId, clazz);
+    }
+
+    @Override
+    public <T extends AbstractConversationHolder> void deleteAll(Collection<T> ts) {
+        ts.forEach(t -> evict(key(t.id, t.getClass())));
+        delegate.deleteAll(ts);
+        ts.forEach(t -> {
+            var key = key(t.id, t.getClass());
+            evict(key);
+            broadcaster.publish(key);
+        });
+    }
+
+    private <T extends AbstractConversationHolder> void put(String key, T t) {
+        var entry = entry(t);
+        synchronized (cache) {
+            generations[stripe(key)]++;
+            cache.put(key, entry);
+        }
+    }
+
+    /**
+     * Caches a conversation read from the store, unless the key was put or evicted since the read started.
+     */
+    private <T extends AbstractConversationHolder> void putIfUnchanged(String key, T t, Long generation) {
+        if (generation == null) {
+            return;
+        }
+        var entry = entry(t);
+        synchronized (cache) {
+            if (generations[stripe(key)] == generation) {
+                cache.put(key, entry);
+            } else {
+                log.trace("conversation changed while being read, not cached: {}", key);
+            }
+        }
+    }
+
+    private long generation(String key) {
+        synchronized (cache) {
+            return generations[stripe(key)];
+        }
+    }
+
+    private <T extends AbstractConversationHolder> Entry entry(T t) {
+        var expiresAt = Instant.now().plus(min(timeToLive, ConversationMetadata.of(t).getTimeToLive()));
+        if (t._expiresAt != null && t._expiresAt.isBefore(expiresAt)) {
+            expiresAt = t._expiresAt;
+        }
+        return new Entry(codec.encode(t), expiresAt);
+    }
+
+    private void evict(String key) {
+        synchronized (cache) {
+            generations[stripe(key)]++;
+            cache.remove(key);
+        }
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode(), GENERATION_STRIPES);
+    }
+
+    private static String key(String id, Class<?> clazz) {
+        return clazz.getName() + ":" + id;
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private record Entry(byte[] value, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.mhewedy.convo.store.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the invalidations synchronously to the listeners in the same JVM,
+ * for single node deployments and tests.
+ * <p>
+ * Other nodes are not notified, so with multiple nodes a {@link RedisCacheInvalidationBroadcaster} or a custom
+ * broadcaster should be used.
+ */
+public class InProcessCacheInvalidationBroadcaster implements CacheInvalidationBroadcaster {
+
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String key) {
+        listeners.forEach(it -> it.accept(key));
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.mhewedy.convo.store.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Broadcasts the invalidations through Redis pub/sub on the {@value #CHANNEL} channel.
+ * <p>
+ * Messages are prefixed with the id of the publishing node, so a node ignores its own invalidations.
+ */
+@Slf4j
+public class RedisCacheInvalidationBroadcaster implements CacheInvalidationBroadcaster, MessageListener {
+
+    public static final String CHANNEL = "convo:cache-invalidation";
+    private static final char SEPARATOR = '|';
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisCacheInvalidationBroadcaster(StringRedisTemplate redisTemplate,
+                                             RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        listenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    @Override
+    public void publish(String key) {
+        try {
+            redisTemplate.convertAndSend(CHANNEL, nodeId + SEPARATOR + key);
+        } catch (Exception ex) {
+            log.warn("failed to publish cache invalidation for: {}, reason: {}", key, ex.getMessage());
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        var body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(SEPARATOR);
+        if (index < 0 || body.substring(0, index).equals(nodeId)) {
+            return;
+        }
+        var key = body.substring(index + 1);
+        listeners.forEach(it -> it.accept(key));
+    }
+}
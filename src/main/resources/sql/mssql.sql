@@ -3,8 +3,26 @@ create table conversation_holder
     id                 varchar(50) primary key,
     expires_at         datetime,
     conversation_class varchar(500),
-    conversation_value varchar(max)
+    conversation_value varchar(max),
+    revision           bigint,
+    owner_id           varchar(255)
 );
 
+-- when using a binary codec (convo.codec=smile or convo.codec=cbor), use a binary type for conversation_value:
+-- conversation_value varbinary(max)
+
+-- revision is only used when convo.optimistic-locking=true, owner_id when convo.owner-index=true
+
 -- optional
 create index idx_conversation_holder_expires_at on conversation_holder (expires_at);
+
+-- optional, recommended when convo.owner-index=true
+create index idx_conversation_holder_owner_id on conversation_holder (owner_id);
+
+-- optional, required when convo.jdbc.cleanup.lease=true
+create table conversation_cleanup_lease
+(
+    name       varchar(50) primary key,
+    owner      varchar(100),
+    expires_at datetime
+);
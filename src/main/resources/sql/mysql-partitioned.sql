@@ -0,0 +1,33 @@
+-- conversation_holder partitioned by expires_at, to be used with convo.jdbc.partitioning.enabled=true
+-- the partitions are created and dropped by the cleanup task (convo.jdbc.cleanup.enabled=true),
+-- the initial partition is required by mysql and dropped by the first cleanup
+create table conversation_holder
+(
+    id                 varchar(50) not null,
+    expires_at         datetime    not null,
+    conversation_class varchar(500),
+    conversation_value text,
+    revision           bigint,
+    owner_id           varchar(255),
+    primary key (id, expires_at)
+)
+    partition by range columns (expires_at) (
+        partition p197001010000 values less than ('1970-01-02 00:00:00')
+        );
+
+-- when using a binary codec (convo.codec=smile or convo.codec=cbor), use a binary type for conversation_value:
+-- conversation_value longblob
+
+-- the primary key includes expires_at, as required for partitioning, so saves of the same id are serialized by a lock
+-- owner_id is only used when convo.owner-index=true, convo.optimistic-locking is not supported
+
+-- optional, recommended when convo.owner-index=true
+create index idx_conversation_holder_owner_id on conversation_holder (owner_id);
+
+-- optional, required when convo.jdbc.cleanup.lease=true
+create table conversation_cleanup_lease
+(
+    name       varchar(50) primary key,
+    owner      varchar(100),
+    expires_at datetime
+);
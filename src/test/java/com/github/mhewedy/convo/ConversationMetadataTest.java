@@ -0,0 +1,145 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.annotations.TimeToLive;
+import com.github.mhewedy.convo.annotations.Version;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationMetadataTest {
+
+    @Version("2")
+    @TimeToLive(duration = "PT5M")
+    static class MultiStepConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String name;
+        @Step(2)
+        public String email;
+        @Step(3)
+        public String address;
+    }
+
+    static class DefaultsConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String data;
+    }
+
+    private static class PrivateFieldsConversation extends AbstractConversationHolder {
+        @Step(1)
+        private String name;
+        @Step(2)
+        private int age;
+    }
+
+    static class StaticAndFinalFieldsConversation extends AbstractConversationHolder {
+        private static final long serialVersionUID = 1L;
+        static String constant = "constant";
+        @Step(1)
+        final String name = null;
+        @Step(2)
+        public String email;
+    }
+
+    static class DuplicateStepConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String first;
+        @Step(1)
+        public String second;
+    }
+
+    static class GapConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String step1;
+        @Step(3)
+        public String step3;
+    }
+
+    static class MissingStepConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String step1;
+        public String noStep;
+    }
+
+    @Test
+    void of_ShouldReadAnnotations() {
+        var metadata = ConversationMetadata.of(MultiStepConversation.class);
+
+        assertEquals("2", metadata.getVersion());
+        assertEquals(Duration.ofMinutes(5), metadata.getTimeToLive());
+    }
+
+    @Test
+    void of_ShouldUseDefaults_WhenNotAnnotated() {
+        var metadata = ConversationMetadata.of(DefaultsConversation.class);
+
+        assertNull(metadata.getVersion());
+        assertEquals(Duration.ofMinutes(30), metadata.getTimeToLive());
+    }
+
+    @Test
+    void of_ShouldReturnSameInstance_ForSameClass() {
+        assertSame(ConversationMetadata.of(MultiStepConversation.class),
+                ConversationMetadata.of(new MultiStepConversation()));
+    }
+
+    @Test
+    void of_ShouldIndexFieldsByStep() {
+        var metadata = ConversationMetadata.of(MultiStepConversation.class);
+
+        metadata.validateSteps();
+        assertEquals(3, metadata.getStepCount());
+        assertEquals("name", metadata.getField(1).getName());
+        assertEquals("address", metadata.getField(3).getName());
+        assertTrue(metadata.getFields().stream().noneMatch(it -> it.getName().equals("_ownerId")));
+    }
+
+    @Test
+    void stepField_ShouldReadAndWritePrivateFields() {
+        var metadata = ConversationMetadata.of(PrivateFieldsConversation.class);
+        var conversation = new PrivateFieldsConversation();
+
+        metadata.getField(1).set(conversation, "test");
+        metadata.getField(2).set(conversation, 30);
+
+        assertEquals("test", conversation.name);
+        assertEquals(30, metadata.getField(2).get(conversation));
+    }
+
+    @Test
+    void stepField_ShouldSkipStaticFields_AndWriteFinalFields() {
+        var metadata = ConversationMetadata.of(StaticAndFinalFieldsConversation.class);
+        var conversation = new StaticAndFinalFieldsConversation();
+
+        assertEquals(2, metadata.getStepCount());
+        metadata.getField(1).set(conversation, "test");
+
+        assertEquals("test", metadata.getField(1).get(conversation));
+        assertEquals("constant", StaticAndFinalFieldsConversation.constant);
+    }
+
+    @Test
+    void validateSteps_ShouldThrow_WhenStepsHaveGaps() {
+        var metadata = ConversationMetadata.of(GapConversation.class);
+
+        var ex = assertThrows(RuntimeException.class, metadata::validateSteps);
+        assertEquals("no gaps allowed in step numbers", ex.getMessage());
+    }
+
+    @Test
+    void validateSteps_ShouldThrow_WhenStepsAreDuplicated() {
+        var metadata = ConversationMetadata.of(DuplicateStepConversation.class);
+
+        var ex = assertThrows(RuntimeException.class, metadata::validateSteps);
+        assertEquals("no duplicate steps allowed", ex.getMessage());
+    }
+
+    @Test
+    void validateSteps_ShouldThrow_WhenFieldHasNoStep() {
+        var metadata = ConversationMetadata.of(MissingStepConversation.class);
+
+        assertThrows(RuntimeException.class, metadata::validateSteps);
+    }
+}
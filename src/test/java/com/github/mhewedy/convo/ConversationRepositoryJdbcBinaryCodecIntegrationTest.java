@@ -0,0 +1,68 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.jdbc.EmbeddedDatabaseConnection;
+import org.springframework.boot.jdbc.test.autoconfigure.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = Config.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {"convo.store=jdbc", "convo.codec=smile"}
+)
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(connection = EmbeddedDatabaseConnection.H2)
+@Sql(statements = "create table conversation_holder (id varchar(50) primary key, expires_at timestamp, " +
+        "conversation_class varchar(500), conversation_value varbinary)",
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_CLASS)
+class ConversationRepositoryJdbcBinaryCodecIntegrationTest {
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+    @Autowired
+    private ConversationCodec codec;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    static class MultiStepConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String step1Data;
+
+        @Step(2)
+        public String step2Data;
+    }
+
+    @Test
+    void shouldSaveAndRetrieveConversationAsBinary() {
+        // given
+        MultiStepConversation conversation = new MultiStepConversation();
+        conversation.step1Data = "step 1 data";
+        String ownerId = "testUser";
+
+        // when
+        conversationRepository.save(ownerId, conversation);
+        MultiStepConversation loaded = conversationRepository.findById(ownerId, conversation.id, MultiStepConversation.class);
+        loaded.step2Data = "step 2 data";
+        conversationRepository.save(ownerId, loaded);
+
+        // then
+        MultiStepConversation retrieved = conversationRepository.findById(ownerId, conversation.id, MultiStepConversation.class);
+        assertTrue(codec.isBinary());
+        assertEquals("step 1 data", retrieved.step1Data);
+        assertEquals("step 2 data", retrieved.step2Data);
+
+        byte[] stored = jdbcTemplate.queryForObject("SELECT conversation_value FROM conversation_holder WHERE id = :id",
+                Map.of("id", conversation.id), byte[].class);
+        assertNotNull(stored);
+        assertEquals(':', (char) stored[0]); // smile header
+    }
+}
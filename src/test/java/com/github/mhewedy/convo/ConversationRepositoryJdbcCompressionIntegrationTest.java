@@ -0,0 +1,68 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.annotations.Step;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.jdbc.EmbeddedDatabaseConnection;
+import org.springframework.boot.jdbc.test.autoconfigure.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = Config.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {"convo.store=jdbc", "convo.compression.enabled=true", "convo.compression.threshold=1KB"}
+)
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(connection = EmbeddedDatabaseConnection.H2)
+@Sql("/sql/postgres.sql")
+class ConversationRepositoryJdbcCompressionIntegrationTest {
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    static class MultiStepConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String step1Data;
+
+        @Step(2)
+        public String step2Data;
+    }
+
+    @Test
+    void shouldCompressLargeConversationsOnly() {
+        // given
+        MultiStepConversation conversation = new MultiStepConversation();
+        conversation.step1Data = "small";
+        String ownerId = "testUser";
+
+        // when
+        conversationRepository.save(ownerId, conversation);
+        String small = storedValue(conversation.id);
+
+        MultiStepConversation loaded = conversationRepository.findById(ownerId, conversation.id, MultiStepConversation.class);
+        loaded.step2Data = "large step 2 data ".repeat(200);
+        conversationRepository.save(ownerId, loaded);
+        String large = storedValue(conversation.id);
+
+        // then
+        assertTrue(small.startsWith("{"));
+        assertTrue(large.startsWith("~CZ:"));
+
+        MultiStepConversation retrieved = conversationRepository.findById(ownerId, conversation.id, MultiStepConversation.class);
+        assertEquals("small", retrieved.step1Data);
+        assertEquals(loaded.step2Data, retrieved.step2Data);
+    }
+
+    private String storedValue(String id) {
+        return jdbcTemplate.queryForObject("SELECT conversation_value FROM conversation_holder WHERE id = :id",
+                Map.of("id", id), String.class);
+    }
+}
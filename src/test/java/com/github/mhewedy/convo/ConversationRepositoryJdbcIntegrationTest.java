@@ -3,6 +3,11 @@ package com.github.mhewedy.convo;
 import com.github.mhewedy.convo.annotations.Step;
 import com.github.mhewedy.convo.annotations.TimeToLive;
 import com.github.mhewedy.convo.annotations.Version;
+import com.github.mhewedy.convo.codec.ConversationCodec;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import com.github.mhewedy.convo.store.JdbcDialect;
+import com.github.mhewedy.convo.store.JdbcStoreRepository;
 import com.github.mhewedy.convo.store.StoreRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,6 +20,10 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.jdbc.Sql;
 import tools.jackson.databind.ObjectMapper;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -22,7 +31,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest(classes = Config.class,
         webEnvironment = SpringBootTest.WebEnvironment.NONE,
-        properties = {"convo.store=jdbc"}
+        properties = {"convo.store=jdbc", "convo.jdbc.cleanup.lease=true", "convo.jdbc.cleanup.batch-size=1",
+                "convo.owner-index=true"}
 )
 @ActiveProfiles("test")
 @AutoConfigureTestDatabase(connection = EmbeddedDatabaseConnection.H2)
@@ -37,6 +47,8 @@ class ConversationRepositoryJdbcIntegrationTest {
     private StoreRepository storeRepository;
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
+    @Autowired
+    private ConversationCodec codec;
 
     private ConversationRepository conversationRepository;
 
@@ -157,6 +169,44 @@ class ConversationRepositoryJdbcIntegrationTest {
         assertEquals(conversationId, retrieved.id);
     }
 
+    @Test
+    void shouldRecreateLoadedConversation_WhenRemovedFromStoreBeforeSave() {
+        // given
+        TestConversation conversation = new TestConversation();
+        conversation.data = "initial data";
+        String ownerId = "testUser";
+        conversationRepository.save(ownerId, conversation);
+        TestConversation loaded = conversationRepository.findById(ownerId, conversation.id, TestConversation.class);
+
+        // when
+        jdbcTemplate.update("DELETE FROM conversation_holder WHERE id = :id", Map.of("id", conversation.id));
+        loaded.data = "updated data";
+        conversationRepository.save(ownerId, loaded);
+
+        // then
+        TestConversation retrieved = conversationRepository.findById(ownerId, conversation.id, TestConversation.class);
+        assertEquals("updated data", retrieved.data);
+    }
+
+    @Test
+    void shouldNotOverwriteConversationOfAnotherClass_WithSameId() {
+        // given
+        TestConversation conversation = new TestConversation();
+        conversation.data = "initial data";
+        String ownerId = "testUser";
+        conversationRepository.save(ownerId, conversation);
+
+        // when
+        MultiStepConversation other = new MultiStepConversation();
+        other.id = conversation.id;
+        other.step1Data = "other data";
+
+        // then
+        assertThrows(RuntimeException.class, () -> conversationRepository.save(ownerId, other));
+        TestConversation retrieved = conversationRepository.findById(ownerId, conversation.id, TestConversation.class);
+        assertEquals("initial data", retrieved.data);
+    }
+
     @Test
     void shouldExpireConversation() throws InterruptedException {
         // given
@@ -176,6 +226,39 @@ class ConversationRepositoryJdbcIntegrationTest {
                 conversationRepository.findById(ownerId, conversationId, ShortLivedConversation.class));
     }
 
+    @Test
+    void shouldExtendExpiry_WhenFound_WithSlidingExpiration() throws InterruptedException {
+        // given
+        var properties = new ConvoProperties();
+        properties.getSlidingExpiration().setEnabled(true);
+        properties.getSlidingExpiration().setTouchFraction(0.5);
+        var slidingRepository = new ConversationRepository(idGenerator, objectMapper,
+                new JdbcStoreRepository(codec, ConversationCompressor.disabled(), JdbcDialect.H2, jdbcTemplate,
+                        properties, null, null));
+        ShortLivedConversation conversation = new ShortLivedConversation();
+        conversation.data = "data";
+        slidingRepository.save(null, conversation);
+        Timestamp savedExpiry = expiresAt(conversation.id);
+
+        // when
+        slidingRepository.findById(null, conversation.id, ShortLivedConversation.class);
+        Timestamp notTouchedExpiry = expiresAt(conversation.id);
+        Thread.sleep(700);
+        slidingRepository.findById(null, conversation.id, ShortLivedConversation.class);
+        Thread.sleep(700);
+
+        // then
+        assertEquals(savedExpiry, notTouchedExpiry);
+        assertEquals("data", slidingRepository.findById(null, conversation.id, ShortLivedConversation.class).data);
+        assertTrue(expiresAt(conversation.id).after(savedExpiry));
+        slidingRepository.delete(null, conversation.id, ShortLivedConversation.class);
+    }
+
+    private Timestamp expiresAt(String id) {
+        return jdbcTemplate.queryForObject("SELECT expires_at FROM conversation_holder WHERE id = :id",
+                Map.of("id", id), Timestamp.class);
+    }
+
     @Test
     void shouldCleanupExpiredConversations() throws InterruptedException {
         // given
@@ -198,18 +281,15 @@ class ConversationRepositoryJdbcIntegrationTest {
         // Wait for expiration
         Thread.sleep(1500);
 
-        // Force a find to trigger cleanup of expired conversations for both conversations
-        try {
-            conversationRepository.findById(ownerId, conversation1.id, ShortLivedConversation.class);
-        } catch (ConversationException ignored) {
-            // Expected exception
-        }
+        // Expired conversations are not returned, but kept until the cleanup task runs
+        assertThrows(ConversationException.class, () ->
+                conversationRepository.findById(ownerId, conversation1.id, ShortLivedConversation.class));
+        int countExpired = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM conversation_holder WHERE conversation_class = :class",
+                Map.of("class", ShortLivedConversation.class.getSimpleName()),
+                Integer.class);
 
-        try {
-            conversationRepository.findById(ownerId, conversation2.id, ShortLivedConversation.class);
-        } catch (ConversationException ignored) {
-            // Expected exception
-        }
+        int deleted = ((JdbcStoreRepository) storeRepository).cleanup();
 
         // then
         int countAfter = jdbcTemplate.queryForObject(
@@ -217,10 +297,183 @@ class ConversationRepositoryJdbcIntegrationTest {
                 Map.of("class", ShortLivedConversation.class.getSimpleName()),
                 Integer.class);
 
+        assertEquals(2, countExpired);
+        assertTrue(deleted >= 2);
         assertEquals(2, countBefore);
         assertEquals(0, countAfter);
     }
 
+    @Test
+    void shouldSkipCleanup_WhenLeaseHeldByAnotherNode() throws InterruptedException {
+        // given
+        ShortLivedConversation conversation = new ShortLivedConversation();
+        conversation.data = "ephemeral data";
+        conversationRepository.save("testUser", conversation);
+        Thread.sleep(1500);
+
+        jdbcTemplate.update("DELETE FROM conversation_cleanup_lease", Map.of());
+        jdbcTemplate.update("INSERT INTO conversation_cleanup_lease (name, owner, expires_at) " +
+                        "VALUES ('conversation_cleanup', 'other-node', :expires_at)",
+                Map.of("expires_at", Timestamp.from(Instant.now().plusSeconds(60))));
+
+        // when
+        int deletedWhileHeld = ((JdbcStoreRepository) storeRepository).cleanup();
+        jdbcTemplate.update("UPDATE conversation_cleanup_lease SET expires_at = :expires_at",
+                Map.of("expires_at", Timestamp.from(Instant.now().minusSeconds(1))));
+        int deletedAfterExpiry = ((JdbcStoreRepository) storeRepository).cleanup();
+
+        // then
+        assertEquals(0, deletedWhileHeld);
+        assertTrue(deletedAfterExpiry >= 1);
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM conversation_holder WHERE id = :id",
+                Map.of("id", conversation.id), Integer.class));
+    }
+
+    @Test
+    void shouldSaveFindAndDeleteConversationsInBatch() {
+        // given
+        String ownerId = "testUser";
+        List<MultiStepConversation> conversations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            MultiStepConversation conversation = new MultiStepConversation();
+            conversation.step1Data = "data " + i;
+            conversations.add(conversation);
+        }
+
+        // when
+        conversationRepository.saveAll(ownerId, conversations);
+        conversations.get(0).step2Data = "step 2";
+        conversationRepository.saveAll(ownerId, List.of(conversations.get(0)));
+        List<String> ids = conversations.stream().map(it -> it.id).toList();
+        List<MultiStepConversation> retrieved = conversationRepository.findAllById(ownerId, ids, MultiStepConversation.class);
+
+        // then
+        assertEquals(3, retrieved.size());
+        assertEquals(ids, retrieved.stream().map(it -> it.id).toList());
+        assertEquals("step 2", retrieved.get(0).step2Data);
+        assertEquals("data 2", retrieved.get(2).step1Data);
+        assertTrue(conversationRepository.findAllById("otherUser", ids, MultiStepConversation.class).isEmpty());
+
+        conversationRepository.deleteAll(ownerId, ids, MultiStepConversation.class);
+        assertTrue(conversationRepository.findAllById(ownerId, ids, MultiStepConversation.class).isEmpty());
+    }
+
+    @Test
+    void shouldFindAndDeleteAllConversationsByOwner() {
+        // given
+        String ownerId = UUID.randomUUID().toString();
+        List<TestConversation> conversations = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            TestConversation conversation = new TestConversation();
+            conversation.data = "data " + i;
+            conversations.add(conversation);
+        }
+        conversationRepository.saveAll(ownerId, conversations);
+        TestConversation another = new TestConversation();
+        another.data = "another";
+        conversationRepository.save("otherUser", another);
+        MultiStepConversation otherClass = new MultiStepConversation();
+        otherClass.step1Data = "other class";
+        conversationRepository.save(ownerId, otherClass);
+
+        // when
+        List<TestConversation> retrieved = conversationRepository.findAllByOwner(ownerId, TestConversation.class);
+
+        // then
+        assertEquals(conversations.stream().map(it -> it.id).sorted().toList(),
+                retrieved.stream().map(it -> it.id).sorted().toList());
+
+        conversationRepository.deleteAllByOwner(ownerId, TestConversation.class);
+        assertTrue(conversationRepository.findAllByOwner(ownerId, TestConversation.class).isEmpty());
+        assertEquals("another", conversationRepository.findById("otherUser", another.id, TestConversation.class).data);
+        assertEquals(1, conversationRepository.findAllByOwner(ownerId, MultiStepConversation.class).size());
+        assertThrows(ConversationException.class,
+                () -> conversationRepository.findAllByOwner(null, TestConversation.class));
+    }
+
+    @Test
+    void shouldFailSave_WhenConversationModifiedConcurrently_WithOptimisticLocking() {
+        // given
+        var lockingRepository = new ConversationRepository(idGenerator, objectMapper, storeRepository,
+                RequestScope.NONE, true);
+        TestConversation conversation = new TestConversation();
+        conversation.data = "initial data";
+        lockingRepository.save("testUser", conversation);
+        TestConversation first = lockingRepository.findById("testUser", conversation.id, TestConversation.class);
+        TestConversation second = lockingRepository.findById("testUser", conversation.id, TestConversation.class);
+
+        // when
+        first.data = "first update";
+        lockingRepository.save("testUser", first);
+        second.data = "second update";
+
+        // then
+        assertThrows(ConversationConflictException.class, () -> lockingRepository.save("testUser", second));
+        assertEquals(1, second._revision);
+        TestConversation retrieved = lockingRepository.findById("testUser", conversation.id, TestConversation.class);
+        assertEquals("first update", retrieved.data);
+        assertEquals(2, retrieved._revision);
+
+        retrieved.data = "second update";
+        lockingRepository.save("testUser", retrieved);
+        assertEquals("second update",
+                lockingRepository.findById("testUser", conversation.id, TestConversation.class).data);
+    }
+
+    @Test
+    void shouldFailSave_WhenConversationCreatedConcurrently_WithOptimisticLocking() {
+        var lockingRepository = new ConversationRepository(idGenerator, objectMapper, storeRepository,
+                RequestScope.NONE, true);
+        TestConversation first = new TestConversation();
+        first.id = UUID.randomUUID().toString();
+        first._version = "1";
+        first.data = "first";
+        TestConversation second = new TestConversation();
+        second.id = first.id;
+        second._version = "1";
+        second.data = "second";
+
+        lockingRepository.saveAll("testUser", List.of(first));
+
+        assertThrows(ConversationConflictException.class, () -> lockingRepository.save("testUser", second));
+        assertEquals("first", lockingRepository.findById("testUser", first.id, TestConversation.class).data);
+    }
+
+    @Test
+    void shouldFailSave_WhenIdIsUsedByAnotherClass_WithOptimisticLocking() {
+        var lockingRepository = new ConversationRepository(idGenerator, objectMapper, storeRepository,
+                RequestScope.NONE, true);
+        TestConversation first = new TestConversation();
+        first.data = "first";
+        lockingRepository.save("testUser", first);
+        MultiStepConversation second = new MultiStepConversation();
+        second.id = first.id;
+        second._version = "1";
+        second.step1Data = "second";
+
+        assertThrowsExactly(ConversationException.class, () -> lockingRepository.save("testUser", second));
+        assertEquals("first", lockingRepository.findById("testUser", first.id, TestConversation.class).data);
+    }
+
+    @Test
+    void shouldOverwriteExpiredConversation_WithOptimisticLocking() throws InterruptedException {
+        var lockingRepository = new ConversationRepository(idGenerator, objectMapper, storeRepository,
+                RequestScope.NONE, true);
+        ShortLivedConversation conversation = new ShortLivedConversation();
+        conversation.data = "data";
+        lockingRepository.save(null, conversation);
+        lockingRepository.save(null, conversation);
+
+        Thread.sleep(1100);
+
+        ShortLivedConversation recreated = new ShortLivedConversation();
+        recreated.id = conversation.id;
+        recreated._version = "1";
+        recreated.data = "recreated";
+        lockingRepository.save(null, recreated);
+        assertEquals("recreated", lockingRepository.findById(null, conversation.id, ShortLivedConversation.class).data);
+    }
+
     @Test
     void shouldHandleNullOwnerId() {
         // given
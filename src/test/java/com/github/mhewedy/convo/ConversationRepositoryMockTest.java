@@ -2,18 +2,27 @@ package com.github.mhewedy.convo;
 
 import tools.jackson.databind.ObjectMapper;
 import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.annotations.TrackUpdatedSteps;
 import com.github.mhewedy.convo.annotations.Version;
+import com.github.mhewedy.convo.store.SaveContext;
 import com.github.mhewedy.convo.store.StoreRepository;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -33,12 +42,27 @@ class ConversationRepositoryMockTest {
         conversationRepository = new ConversationRepository(idGenerator, objectMapper, storeRepository);
     }
 
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
     @Version("1.0")
     static class TestConversation extends AbstractConversationHolder {
         @Step(1)
         public String data;
     }
 
+    @TrackUpdatedSteps
+    static class TrackedConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String name;
+        @Step(2)
+        public String email;
+        @Step(3)
+        public String address;
+    }
+
     @Test
     void save_ShouldSetIdAndVersion_WhenNewObject() {
         // Arrange
@@ -54,7 +78,99 @@ class ConversationRepositoryMockTest {
         assertEquals(generatedId, conversation.id);
         assertEquals("1.0", conversation._version);
         assertEquals("owner1", conversation._ownerId);
-        verify(storeRepository).save(conversation);
+        verify(storeRepository).save(conversation, new SaveContext(false, 1));
+    }
+
+    @Test
+    void save_ShouldNotReloadConversation_WhenLoadedByFindById() {
+        // Arrange
+        TestConversation conversation = new TestConversation();
+        conversation.id = "test-id";
+        conversation._ownerId = "owner1";
+        conversation._version = "1.0";
+        conversation.data = "old";
+        when(storeRepository.findById("test-id", TestConversation.class))
+                .thenReturn(Optional.of(conversation));
+        TestConversation loaded = conversationRepository.findById("owner1", "test-id", TestConversation.class);
+
+        // Act
+        loaded.data = "new";
+        conversationRepository.save("owner1", loaded);
+
+        // Assert
+        verify(storeRepository, times(1)).findById("test-id", TestConversation.class);
+        verify(storeRepository).save(loaded, new SaveContext(true, 1, null, true));
+    }
+
+    @Test
+    void save_ShouldReportPreviousStepsChanged_WhenPreviousStepCleared() {
+        // Arrange
+        var stored = new TrackedConversation();
+        stored.id = "test-id";
+        stored.name = "name";
+        stored.email = "email";
+        when(storeRepository.findById("test-id", TrackedConversation.class)).thenReturn(Optional.of(stored));
+        var loaded = conversationRepository.findById(null, "test-id", TrackedConversation.class);
+        // the values of tracked conversations are not captured, so the previous steps are unknown
+        loaded.markStepUpdated(2);
+        conversationRepository.save(null, loaded);
+        verify(storeRepository).save(loaded, new SaveContext(true, 2, null, false));
+
+        var untracked = new ThreeStepConversation();
+        untracked.id = "other-id";
+        untracked.first = "first";
+        untracked.second = "second";
+        when(storeRepository.findById("other-id", ThreeStepConversation.class)).thenReturn(Optional.of(untracked));
+        var loadedUntracked = conversationRepository.findById(null, "other-id", ThreeStepConversation.class);
+
+        // Act
+        loadedUntracked.first = null;
+        loadedUntracked.third = "third";
+        conversationRepository.save(null, loadedUntracked);
+
+        // Assert
+        verify(storeRepository).save(loadedUntracked, new SaveContext(true, 3, null, false));
+    }
+
+    static class ThreeStepConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String first;
+        @Step(2)
+        public String second;
+        @Step(3)
+        public String third;
+    }
+
+    @Test
+    void save_ShouldNullifyStepsAfterMarkedStep_WithoutLoadingStoredCopy() {
+        // Arrange
+        TrackedConversation conversation = new TrackedConversation();
+        conversation.id = "test-id";
+        conversation.name = "name";
+        conversation.email = "email";
+        conversation.address = "address";
+
+        // Act
+        conversation.email = "new email";
+        conversation.markStepUpdated(2);
+        conversationRepository.save("owner1", conversation);
+
+        // Assert
+        assertEquals("name", conversation.name);
+        assertEquals("new email", conversation.email);
+        assertNull(conversation.address);
+        verify(storeRepository, never()).findById(any(), any());
+    }
+
+    @Test
+    void save_ShouldThrowException_WhenMoreThanOneStepMarked() {
+        TrackedConversation conversation = new TrackedConversation();
+        conversation.id = "test-id";
+        conversation.markStepUpdated(1);
+        conversation.markStepUpdated(2);
+
+        assertThrows(RuntimeException.class, () -> conversationRepository.save("owner1", conversation));
+        verify(storeRepository, never()).save(any(), any());
     }
 
     @Test
@@ -139,4 +255,117 @@ class ConversationRepositoryMockTest {
                 conversationRepository.findById("owner1", "test-id", TestConversation.class)
         );
     }
+
+    @Test
+    void findById_ShouldReturnSameInstance_WithinRequest_WhenIdentityMap() {
+        // Arrange
+        var repository = new ConversationRepository(idGenerator, objectMapper, storeRepository,
+                RequestScope.IDENTITY_MAP);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        TestConversation conversation = new TestConversation();
+        conversation.id = "test-id";
+        conversation._ownerId = "owner1";
+        conversation._version = "1.0";
+        when(storeRepository.findById("test-id", TestConversation.class))
+                .thenReturn(Optional.of(conversation));
+
+        // Act
+        TestConversation first = repository.findById("owner1", "test-id", TestConversation.class);
+        TestConversation second = repository.findById("owner1", "test-id", TestConversation.class);
+
+        // Assert
+        assertSame(first, second);
+        verify(storeRepository, times(1)).findById("test-id", TestConversation.class);
+        assertThrows(ConversationException.class, () ->
+                repository.findById("owner2", "test-id", TestConversation.class));
+    }
+
+    @Test
+    void save_ShouldWriteOnce_WhenRequestCompleted_WhenWriteBehind() {
+        // Arrange
+        var repository = new ConversationRepository(idGenerator, objectMapper, storeRepository,
+                RequestScope.WRITE_BEHIND);
+        var requestAttributes = new ServletRequestAttributes(new MockHttpServletRequest());
+        RequestContextHolder.setRequestAttributes(requestAttributes);
+        when(idGenerator.generateNewConversationId()).thenReturn("test-id");
+        TrackedConversation conversation = new TrackedConversation();
+        conversation.name = "name";
+
+        // Act
+        repository.save("owner1", conversation);
+        conversation.email = "email";
+        conversation.markStepUpdated(2);
+        repository.save("owner1", conversation);
+
+        // Assert
+        verify(storeRepository, never()).save(any(), any());
+        assertSame(conversation, repository.findById("owner1", "test-id", TrackedConversation.class));
+
+        requestAttributes.requestCompleted();
+        verify(storeRepository, times(1)).save(conversation, new SaveContext(false, 1));
+    }
+
+    @Test
+    void saveAll_ShouldLoadStoredCopiesOnce_AndSaveAll() {
+        // Arrange
+        TestConversation stored = new TestConversation();
+        stored.id = "id-1";
+        stored.data = "old";
+        TestConversation existing = new TestConversation();
+        existing.id = "id-1";
+        existing.data = "new";
+        TestConversation created = new TestConversation();
+        created.data = "created";
+        when(idGenerator.generateNewConversationId()).thenReturn("id-2");
+        when(storeRepository.findAllById(any(), eq(TestConversation.class))).thenReturn(List.of(stored));
+
+        // Act
+        conversationRepository.saveAll("owner1", List.of(existing, created));
+
+        // Assert
+        assertEquals("id-2", created.id);
+        assertEquals("owner1", existing._ownerId);
+        verify(storeRepository, times(1)).findAllById(Set.of("id-1", "id-2"), TestConversation.class);
+        verify(storeRepository, never()).findById(any(), any());
+        verify(storeRepository).saveAll(List.of(existing, created));
+    }
+
+    @Test
+    void findAllById_ShouldSkipConversationsOfOtherOwners() {
+        // Arrange
+        TestConversation mine = new TestConversation();
+        mine.id = "id-1";
+        mine._ownerId = "owner1";
+        mine._version = "1.0";
+        TestConversation other = new TestConversation();
+        other.id = "id-2";
+        other._ownerId = "owner2";
+        other._version = "0.9";
+        when(storeRepository.findAllById(List.of("id-2", "id-1", "id-3"), TestConversation.class))
+                .thenReturn(List.of(mine, other));
+
+        // Act
+        var result = conversationRepository.findAllById("owner1", List.of("id-2", "id-1", "id-3"), TestConversation.class);
+
+        // Assert
+        assertEquals(List.of(mine), result);
+    }
+
+    @Test
+    void deleteAll_ShouldNotDeleteAnything_WhenAnyConversationOfOtherOwner() {
+        // Arrange
+        TestConversation mine = new TestConversation();
+        mine.id = "id-1";
+        mine._ownerId = "owner1";
+        TestConversation other = new TestConversation();
+        other.id = "id-2";
+        other._ownerId = "owner2";
+        when(storeRepository.findAllById(List.of("id-1", "id-2"), TestConversation.class))
+                .thenReturn(List.of(mine, other));
+
+        // Act & Assert
+        assertThrows(ConversationException.class, () ->
+                conversationRepository.deleteAll("owner1", List.of("id-1", "id-2"), TestConversation.class));
+        verify(storeRepository, never()).deleteAll(any());
+    }
 }
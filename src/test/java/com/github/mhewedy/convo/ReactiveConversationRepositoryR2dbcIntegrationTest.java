@@ -0,0 +1,305 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.annotations.TimeToLive;
+import com.github.mhewedy.convo.annotations.Version;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import com.github.mhewedy.convo.store.JdbcDialect;
+import com.github.mhewedy.convo.store.R2dbcStoreRepository;
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.h2.H2ConnectionOption;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.reactivestreams.Publisher;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import tools.jackson.databind.ObjectMapper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.github.mhewedy.convo.Constants.X_CONVERSATION_ID;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReactiveConversationRepositoryR2dbcIntegrationTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final IdGenerator idGenerator = () -> UUID.randomUUID().toString();
+    private static DatabaseClient databaseClient;
+
+    private final ConvoProperties properties = new ConvoProperties();
+    private ReactiveConversationRepository conversationRepository;
+
+    @Version("1")
+    private static class TestConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String data;
+    }
+
+    @Version("1")
+    private static class MultiStepConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String step1Data;
+
+        @Step(2)
+        public String step2Data;
+    }
+
+    @Version("1")
+    @TimeToLive(duration = "PT1S")
+    private static class ShortLivedConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String data;
+    }
+
+    @BeforeAll
+    static void createTable() {
+        databaseClient = DatabaseClient.create(H2ConnectionFactory.inMemory("convo-reactive"));
+        databaseClient.sql("""
+                create table conversation_holder
+                (
+                    id                 varchar(50) primary key,
+                    expires_at         timestamp,
+                    conversation_class varchar(500),
+                    conversation_value text
+                )""").then().block();
+    }
+
+    @BeforeEach
+    void setUp() {
+        conversationRepository = repository(JdbcDialect.H2);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = JdbcDialect.class, names = {"H2", "GENERIC"})
+    void shouldSaveUpdateAndRetrieveConversation(JdbcDialect dialect) {
+        conversationRepository = repository(dialect);
+        var conversation = new TestConversation();
+        conversation.data = "initial data";
+        conversationRepository.save("testUser", conversation).block();
+
+        var loaded = conversationRepository.findById("testUser", conversation.id, TestConversation.class).block();
+        loaded.data = "updated data";
+        conversationRepository.save("testUser", loaded).block();
+
+        var retrieved = conversationRepository.findById("testUser", conversation.id, TestConversation.class).block();
+        assertEquals("updated data", retrieved.data);
+        assertEquals("1", retrieved._version);
+    }
+
+    @Test
+    void shouldNullifyNextSteps_WhenPreviousStepUpdated_WithoutLoadingFirst() {
+        var conversation = new MultiStepConversation();
+        conversation.step1Data = "step1";
+        conversationRepository.save(null, conversation).block();
+        conversation.step2Data = "step2";
+        conversationRepository.save(null, conversation).block();
+
+        // a new instance, so the stored copy is loaded to find the updated step
+        var update = new MultiStepConversation();
+        update.id = conversation.id;
+        update._version = "1";
+        update.step1Data = "updated step1";
+        update.step2Data = "step2";
+        conversationRepository.save(null, update).block();
+
+        var retrieved = conversationRepository.findById(null, conversation.id, MultiStepConversation.class).block();
+        assertEquals("updated step1", retrieved.step1Data);
+        assertNull(retrieved.step2Data);
+    }
+
+    @Test
+    void shouldFail_WhenConversationBelongsToAnotherOwner() {
+        var conversation = new TestConversation();
+        conversation.data = "data";
+        conversationRepository.save("owner1", conversation).block();
+
+        StepVerifier.create(conversationRepository.findById("owner2", conversation.id, TestConversation.class))
+                .expectError(ConversationException.class)
+                .verify();
+        StepVerifier.create(conversationRepository.delete("owner2", conversation.id, TestConversation.class))
+                .expectError(ConversationException.class)
+                .verify();
+    }
+
+    @Test
+    void shouldDeleteConversation() {
+        var conversation = new TestConversation();
+        conversation.data = "data";
+        conversationRepository.save("testUser", conversation).block();
+
+        conversationRepository.delete("testUser", conversation.id, TestConversation.class).block();
+
+        StepVerifier.create(conversationRepository.findById("testUser", conversation.id, TestConversation.class))
+                .expectError(ConversationException.class)
+                .verify();
+    }
+
+    @Test
+    void shouldUseConversationIdOfTheRequest() {
+        var conversation = new TestConversation();
+        conversation.data = "data";
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/").header(X_CONVERSATION_ID, "request-id"));
+
+        new ReactiveConversationFilter()
+                .filter(exchange, it -> conversationRepository.save(null, conversation).then())
+                .block();
+
+        assertEquals("request-id", conversation.id);
+    }
+
+    @Test
+    void shouldShareNewConversationIdWithinTheRequest() {
+        var first = new TestConversation();
+        var second = new TestConversation();
+        List<String> currentIds = new ArrayList<>();
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+
+        new ReactiveConversationFilter()
+                .filter(exchange, it -> conversationRepository.save(null, first)
+                        .then(conversationRepository.save(null, second))
+                        .then(ReactiveConversationFilter.getCurrentConversationId())
+                        .doOnNext(currentIds::add)
+                        .then())
+                .block();
+
+        assertNotNull(first.id);
+        assertEquals(first.id, second.id);
+        assertEquals(List.of(first.id), currentIds);
+    }
+
+    @Test
+    void shouldCleanupExpiredConversations() throws InterruptedException {
+        properties.getJdbc().getCleanup().setBatchSize(1);
+        var store = store(JdbcDialect.H2);
+        conversationRepository = new ReactiveConversationRepository(idGenerator, objectMapper, store);
+        for (int i = 0; i < 3; i++) {
+            var conversation = new ShortLivedConversation();
+            conversation.data = "data";
+            conversationRepository.save(null, conversation).block();
+        }
+
+        Thread.sleep(1100);
+
+        assertTrue(store.cleanup().block() >= 3);
+        assertEquals(0L, store.cleanup().block());
+    }
+
+    @Test
+    void shouldFailOnConstruction_WhenUnsupportedPropertyEnabled() {
+        properties.setOwnerIndex(true);
+        assertThrows(IllegalStateException.class, () -> store(JdbcDialect.H2));
+
+        properties.setOwnerIndex(false);
+        properties.getSlidingExpiration().setEnabled(true);
+        assertThrows(IllegalStateException.class, () -> store(JdbcDialect.H2));
+
+        properties.getSlidingExpiration().setEnabled(false);
+        properties.setOptimisticLocking(true);
+        assertThrows(IllegalStateException.class, () -> store(JdbcDialect.H2));
+    }
+
+    @Test
+    void shouldFail_WhenIdIsUsedByAnotherClass_OnMySql() {
+        var mysqlClient = DatabaseClient.create(countingIgnoredUpserts(new H2ConnectionFactory(
+                H2ConnectionConfiguration.builder().inMemory("convo-reactive-mysql")
+                        .property(H2ConnectionOption.DB_CLOSE_DELAY, "-1")
+                        .property(H2ConnectionOption.MODE, "MySQL").build())));
+        mysqlClient.sql("""
+                create table conversation_holder
+                (
+                    id                 varchar(50) primary key,
+                    expires_at         timestamp,
+                    conversation_class varchar(500),
+                    conversation_value text
+                )""").then().block();
+        var store = new R2dbcStoreRepository(new JacksonConversationCodec(objectMapper),
+                ConversationCompressor.disabled(), JdbcDialect.MYSQL, mysqlClient, properties);
+
+        var first = new TestConversation();
+        first.id = "id";
+        first.data = "first";
+        store.save(first).block();
+
+        var second = new MultiStepConversation();
+        second.id = "id";
+        second.step1Data = "second";
+        StepVerifier.create(store.save(second)).expectError(ConversationException.class).verify();
+
+        first.data = "changed";
+        store.save(first).block();
+        assertEquals("changed", store.findById("id", TestConversation.class).block().data);
+        assertNull(store.findById("id", MultiStepConversation.class).block());
+    }
+
+    /**
+     * Reports the rows matched by {@code ON DUPLICATE KEY UPDATE} as updated even if not changed, as MySQL
+     * Connector/J does by default ({@code useAffectedRows=false}).
+     */
+    @SuppressWarnings("unchecked")
+    private static ConnectionFactory countingIgnoredUpserts(ConnectionFactory connectionFactory) {
+        return proxy(ConnectionFactory.class, connectionFactory, (method, args, connection) ->
+                !method.getName().equals("create") ? connection :
+                        Mono.from((Publisher<Connection>) connection).map(it -> proxy(Connection.class, it,
+                                (connectionMethod, sql, statement) -> connectionMethod.getName().equals("createStatement")
+                                        && ((String) sql[0]).contains("ON DUPLICATE KEY UPDATE") ?
+                                        countingIgnoredRows((Statement) statement) : statement)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Statement countingIgnoredRows(Statement statement) {
+        return proxy(Statement.class, statement, (method, args, results) ->
+                !method.getName().equals("execute") ? results :
+                        Flux.from((Publisher<Result>) results).map(it -> proxy(Result.class, it,
+                                (resultMethod, resultArgs, rows) -> !resultMethod.getName().equals("getRowsUpdated") ?
+                                        rows : Mono.from((Publisher<Long>) rows).map(n -> Math.max(n, 1L)))));
+    }
+
+    /**
+     * @return a proxy of the target, passing the results of its methods to the given function, and returning itself
+     * instead of the target (e.g. for the {@link Statement} bindings)
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, ProxyResult proxyResult) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+            return result == target ? proxy : proxyResult.apply(method, args, result);
+        });
+    }
+
+    private interface ProxyResult {
+        Object apply(Method method, Object[] args, Object result);
+    }
+
+    private ReactiveConversationRepository repository(JdbcDialect dialect) {
+        return new ReactiveConversationRepository(idGenerator, objectMapper, store(dialect));
+    }
+
+    private R2dbcStoreRepository store(JdbcDialect dialect) {
+        return new R2dbcStoreRepository(new JacksonConversationCodec(objectMapper), ConversationCompressor.disabled(),
+                dialect, databaseClient, properties);
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.mhewedy.convo;
+
+import com.github.mhewedy.convo.annotations.Step;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StepComparatorTest {
+
+    private final StepComparator stepComparator = new StepComparator(new ObjectMapper());
+
+    static class OrderConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String customerName;
+        @Step(2)
+        public List<LineItem> lineItems;
+    }
+
+    static class LineItem {
+        public String sku;
+        public int quantity;
+
+        LineItem(String sku, int quantity) {
+            this.sku = sku;
+            this.quantity = quantity;
+        }
+    }
+
+    @Test
+    void capture_ShouldKeepValueTypesAsIs() {
+        var field = ConversationMetadata.of(OrderConversation.class).getField(1);
+
+        assertTrue(field.comparableByEquals);
+        assertEquals("name", stepComparator.capture(field, "name"));
+    }
+
+    @Test
+    void isChanged_ShouldUseEquals_ForValueTypes() {
+        var field = ConversationMetadata.of(OrderConversation.class).getField(1);
+
+        assertFalse(stepComparator.isChanged(field, new String("name"), "name"));
+        assertTrue(stepComparator.isChanged(field, "other", "name"));
+        assertTrue(stepComparator.isChanged(field, "name", null));
+    }
+
+    @Test
+    void isChanged_ShouldCompareJson_ForOtherTypes() {
+        var field = ConversationMetadata.of(OrderConversation.class).getField(2);
+        var items = new ArrayList<>(List.of(new LineItem("a", 1), new LineItem("b", 2)));
+        var captured = stepComparator.capture(field, items);
+
+        assertFalse(field.comparableByEquals);
+        assertFalse(stepComparator.isChanged(field, List.of(new LineItem("a", 1), new LineItem("b", 2)), captured));
+        assertTrue(stepComparator.isChanged(field, List.of(new LineItem("a", 1), new LineItem("b", 3)), captured));
+        assertTrue(stepComparator.isChanged(field, List.of(new LineItem("a", 1)), captured));
+
+        items.add(new LineItem("c", 3));
+        assertTrue(stepComparator.isChanged(field, items, captured));
+    }
+}
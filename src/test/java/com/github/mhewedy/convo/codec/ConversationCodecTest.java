@@ -0,0 +1,57 @@
+package com.github.mhewedy.convo.codec;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.annotations.Step;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationCodecTest {
+
+    static class OrderConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String customerName;
+        @Step(2)
+        public List<LineItem> lineItems;
+    }
+
+    static class LineItem {
+        public String sku;
+        public int quantity;
+    }
+
+    static Stream<Arguments> codecs() {
+        return Stream.of(
+                Arguments.of(new JacksonConversationCodec(new ObjectMapper()), false),
+                Arguments.of(new SmileConversationCodec(), true),
+                Arguments.of(new CborConversationCodec(), true)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("codecs")
+    void encode_ShouldRoundTrip(ConversationCodec codec, boolean binary) {
+        var item = new LineItem();
+        item.sku = "sku-1";
+        item.quantity = 2;
+        var conversation = new OrderConversation();
+        conversation.id = "test-id";
+        conversation._ownerId = "owner1";
+        conversation.customerName = "name";
+        conversation.lineItems = List.of(item);
+
+        var decoded = codec.decode(codec.encode(conversation), OrderConversation.class);
+
+        assertEquals(binary, codec.isBinary());
+        assertEquals("test-id", decoded.id);
+        assertEquals("owner1", decoded._ownerId);
+        assertEquals("name", decoded.customerName);
+        assertEquals(2, decoded.lineItems.get(0).quantity);
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.mhewedy.convo.codec;
+
+import com.github.mhewedy.convo.codec.ConversationCompressor.Algorithm;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationCompressorTest {
+
+    private static final byte[] LARGE_VALUE = "{\"name\":\"some repeated value\"}".repeat(200)
+            .getBytes(StandardCharsets.UTF_8);
+
+    @ParameterizedTest
+    @EnumSource(Algorithm.class)
+    void shouldCompressAndDecompress(Algorithm algorithm) {
+        var compressor = new ConversationCompressor(algorithm, 1024);
+
+        byte[] compressed = compressor.compress(LARGE_VALUE);
+
+        assertTrue(ConversationCompressor.isCompressed(compressed));
+        assertTrue(compressed.length < LARGE_VALUE.length);
+        assertArrayEquals(LARGE_VALUE, compressor.decompress(compressed));
+    }
+
+    @Test
+    void shouldNotCompress_WhenSmallerThanThreshold() {
+        var compressor = new ConversationCompressor(Algorithm.DEFLATE, LARGE_VALUE.length + 1);
+
+        assertSame(LARGE_VALUE, compressor.compress(LARGE_VALUE));
+        assertSame(LARGE_VALUE, compressor.decompress(LARGE_VALUE));
+    }
+
+    @Test
+    void shouldDecompress_WhenCompressedWithOtherAlgorithmOrDisabled() {
+        byte[] compressed = new ConversationCompressor(Algorithm.LZ4, 0).compress(LARGE_VALUE);
+
+        assertArrayEquals(LARGE_VALUE, new ConversationCompressor(Algorithm.DEFLATE, 0).decompress(compressed));
+        assertArrayEquals(LARGE_VALUE, ConversationCompressor.disabled().decompress(compressed));
+        assertSame(LARGE_VALUE, ConversationCompressor.disabled().compress(LARGE_VALUE));
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.mhewedy.convo.metrics;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationException;
+import com.github.mhewedy.convo.ConversationRepository;
+import com.github.mhewedy.convo.RequestScope;
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.annotations.Version;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.store.StoreRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MicrometerConversationMetricsTest {
+
+    @Mock
+    private StoreRepository storeRepository;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ConversationMetrics metrics = new MicrometerConversationMetrics(registry, "jdbc");
+    private ConversationRepository conversationRepository;
+
+    @Version("1")
+    static class TestConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String step1;
+        @Step(2)
+        public String step2;
+        @Step(3)
+        public String step3;
+    }
+
+    @BeforeEach
+    void setUp() {
+        conversationRepository = new ConversationRepository(() -> "id", new ObjectMapper(), storeRepository,
+                RequestScope.NONE, false, metrics);
+    }
+
+    @Test
+    void shouldTimeOperationsByOutcome() {
+        var conversation = new TestConversation();
+        conversation.step1 = "data";
+        conversationRepository.save(null, conversation);
+        when(storeRepository.findById("id", TestConversation.class)).thenReturn(Optional.empty());
+
+        assertThrows(ConversationException.class,
+                () -> conversationRepository.findById(null, "id", TestConversation.class));
+
+        assertEquals(1, timerCount("save", "success"));
+        assertEquals(1, timerCount("findById", "rejected"));
+        assertEquals(2, registry.get("convo.nullified.steps").summary().totalAmount());
+    }
+
+    @Test
+    void shouldCountVersionMismatches() {
+        var stored = new TestConversation();
+        stored.id = "id";
+        stored._version = "0";
+        when(storeRepository.findById("id", TestConversation.class)).thenReturn(Optional.of(stored));
+
+        assertThrows(ConversationException.class,
+                () -> conversationRepository.findById(null, "id", TestConversation.class));
+
+        assertEquals(1, registry.get("convo.version.mismatches").tag("class", "TestConversation").counter().count());
+    }
+
+    @Test
+    void shouldRecordPayloadSizeAndCleanup() {
+        var codec = new MeteredConversationCodec(new JacksonConversationCodec(new ObjectMapper()), metrics);
+        var conversation = new TestConversation();
+        conversation.step1 = "data";
+
+        byte[] bytes = codec.encode(conversation);
+        codec.decode(bytes, TestConversation.class);
+        metrics.recordCleanup(Duration.ofMillis(1500), 42);
+
+        assertEquals(bytes.length, registry.get("convo.payload.size").tag("direction", "encode").summary().totalAmount());
+        assertEquals(bytes.length, registry.get("convo.payload.size").tag("direction", "decode").summary().totalAmount());
+        assertEquals(1.5, registry.get("convo.cleanup.duration").gauge().value());
+        assertEquals(42, registry.get("convo.cleanup.removed").gauge().value());
+    }
+
+    private long timerCount(String operation, String outcome) {
+        return registry.get("convo.operations")
+                .tags("store", "jdbc", "operation", operation, "class", "TestConversation", "outcome", outcome)
+                .timer().count();
+    }
+}
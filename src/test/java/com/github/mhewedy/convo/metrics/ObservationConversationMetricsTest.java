@@ -0,0 +1,134 @@
+package com.github.mhewedy.convo.metrics;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationRepository;
+import com.github.mhewedy.convo.RequestScope;
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.annotations.Version;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.config.ConvoAutoConfiguration;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import com.github.mhewedy.convo.store.StoreRepository;
+import com.github.mhewedy.convo.store.cache.CachingStoreRepository;
+import com.github.mhewedy.convo.store.cache.InProcessCacheInvalidationBroadcaster;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.env.MockEnvironment;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class ObservationConversationMetricsTest {
+
+    @Mock
+    private StoreRepository storeRepository;
+
+    private final List<Observation.Context> stopped = new ArrayList<>();
+    private ObservationConversationMetrics metrics;
+    private ConversationRepository conversationRepository;
+
+    @Version("1")
+    static class TestConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String step1;
+        @Step(2)
+        public String step2;
+    }
+
+    @BeforeEach
+    void setUp() {
+        var registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(new ObservationHandler<>() {
+            @Override
+            public void onStop(Observation.Context context) {
+                stopped.add(context);
+            }
+
+            @Override
+            public boolean supportsContext(Observation.Context context) {
+                return true;
+            }
+        });
+        metrics = new ObservationConversationMetrics(registry, ConversationMetrics.NOOP);
+        var codec = new MeteredConversationCodec(new JacksonConversationCodec(new ObjectMapper()), metrics);
+        var store = new CachingStoreRepository(new MeteredStoreRepository(storeRepository, metrics), codec,
+                new InProcessCacheInvalidationBroadcaster(), 10, Duration.ofMinutes(1), metrics);
+        conversationRepository = new ConversationRepository(() -> "id", new ObjectMapper(), store,
+                RequestScope.NONE, false, metrics);
+    }
+
+    @Test
+    void shouldObserveOperationsWithTheirPhases() {
+        var conversation = new TestConversation();
+        conversation.step1 = "data";
+        conversationRepository.save(null, conversation);
+
+        var save = find("convo.operation", "convo save");
+        assertEquals("TestConversation", value(save, "convo.class"));
+        assertEquals("1", value(save, "convo.step"));
+        assertSame(save, find("convo.phase", "convo nullify").getParentObservation().getContextView());
+        assertSame(save, find("convo.phase", "convo store.save").getParentObservation().getContextView());
+
+        var encode = find("convo.phase", "convo encode");
+        assertSame(save, encode.getParentObservation().getContextView());
+        assertTrue(Integer.parseInt(value(encode, "convo.payload.size")) > 0);
+    }
+
+    @Test
+    void shouldObserveCacheHits() {
+        var conversation = new TestConversation();
+        conversation.step1 = "data";
+        conversationRepository.save(null, conversation);
+        stopped.clear();
+
+        conversationRepository.findById(null, "id", TestConversation.class);
+
+        var findById = find("convo.operation", "convo findById");
+        assertEquals("hit", value(findById, "convo.cache"));
+        assertSame(findById, find("convo.phase", "convo decode").getParentObservation().getContextView());
+        assertTrue(stopped.stream().noneMatch(it -> "convo store.findById".equals(it.getContextualName())));
+    }
+
+    @Test
+    void shouldObserveAsyncSaveFlushes() {
+        var buffer = new ConvoAutoConfiguration().conversationAsyncSaveBuffer(storeRepository,
+                new JacksonConversationCodec(new ObjectMapper()), new ConvoProperties(), new MockEnvironment(),
+                new StaticListableBeanFactory(Map.of("metrics", metrics)).getBeanProvider(ConversationMetrics.class));
+        var conversation = new TestConversation();
+        conversation.id = "id";
+        conversation.step1 = "data";
+
+        buffer.offer(conversation);
+        buffer.close();
+
+        assertEquals("TestConversation", value(find("convo.phase", "convo store.saveAll"), "convo.class"));
+    }
+
+    private Observation.Context find(String name, String contextualName) {
+        return stopped.stream()
+                .filter(it -> name.equals(it.getName()) && contextualName.equals(it.getContextualName()))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError(contextualName + " is not observed in " + stopped));
+    }
+
+    private static String value(Observation.Context context, String key) {
+        return context.getAllKeyValues().stream()
+                .filter(it -> key.equals(it.getKey()))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError(key + " is not found in " + context))
+                .getValue();
+    }
+}
@@ -0,0 +1,234 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.annotations.AsyncSave;
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncSaveStoreRepositoryTest {
+
+    @Mock
+    private StoreRepository storeRepository;
+
+    private final JacksonConversationCodec codec = new JacksonConversationCodec(new ObjectMapper());
+    private AsyncSaveBuffer buffer;
+    private AsyncSaveStoreRepository repository;
+
+    @AsyncSave
+    static class AsyncConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String data;
+    }
+
+    static class SyncConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String data;
+    }
+
+    @BeforeEach
+    void setUp() {
+        // flushed explicitly by the tests
+        buffer = new AsyncSaveBuffer(storeRepository, codec, 2, 10, Duration.ofHours(1),
+                Executors.newSingleThreadScheduledExecutor());
+        repository = new AsyncSaveStoreRepository(storeRepository, buffer);
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.close();
+    }
+
+    @Test
+    void save_ShouldBufferAndCoalesce_UntilFlushed() {
+        var conversation = conversation(new AsyncConversation(), "id", "first");
+        repository.save(conversation);
+        conversation.data = "second";
+        repository.save(conversation);
+        conversation.data = "not saved";
+
+        verifyNoInteractions(storeRepository);
+        assertEquals("second", repository.findById("id", AsyncConversation.class).orElseThrow().data);
+
+        buffer.flush();
+
+        var captor = savedBatch();
+        assertEquals(1, captor.size());
+        assertEquals("second", ((AsyncConversation) captor.iterator().next()).data);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void save_ShouldWriteSynchronously_WhenNotAnnotated() {
+        var conversation = conversation(new SyncConversation(), "id", "data");
+
+        repository.save(conversation);
+
+        verify(storeRepository).save(conversation, SaveContext.UNKNOWN);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void save_ShouldWriteSynchronously_WhenBufferIsFull() {
+        repository.save(conversation(new AsyncConversation(), "id1", "data"));
+        repository.save(conversation(new AsyncConversation(), "id2", "data"));
+        var third = conversation(new AsyncConversation(), "id3", "data");
+
+        repository.save(third);
+        repository.save(conversation(new AsyncConversation(), "id1", "updated"));
+
+        verify(storeRepository).save(third, SaveContext.UNKNOWN);
+        verify(storeRepository, times(1)).save(any(), any());
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    void save_ShouldNotCheckRevision_WhenBufferIsFull() {
+        repository.save(conversation(new AsyncConversation(), "id1", "data"));
+        repository.save(conversation(new AsyncConversation(), "id2", "data"));
+        var third = conversation(new AsyncConversation(), "id3", "data");
+        var sync = conversation(new SyncConversation(), "id4", "data");
+
+        repository.save(third, new SaveContext(true, 1, 0L));
+        repository.save(sync, new SaveContext(true, 1, 0L));
+
+        verify(storeRepository).save(third, new SaveContext(true, 1));
+        verify(storeRepository).save(sync, new SaveContext(true, 1, 0L));
+    }
+
+    @Test
+    void delete_ShouldDropBufferedSave() {
+        var conversation = conversation(new AsyncConversation(), "id", "data");
+        repository.save(conversation);
+
+        repository.delete(conversation);
+        buffer.flush();
+
+        verify(storeRepository).delete(conversation);
+        verify(storeRepository, never()).saveAll(anyCollection());
+        when(storeRepository.findById("id", AsyncConversation.class)).thenReturn(Optional.empty());
+        assertTrue(repository.findById("id", AsyncConversation.class).isEmpty());
+    }
+
+    @Test
+    void findIdsByOwner_ShouldIncludeBufferedConversations() {
+        var buffered = conversation(new AsyncConversation(), "id2", "data");
+        buffered._ownerId = "owner";
+        repository.save(buffered);
+        var another = conversation(new AsyncConversation(), "id3", "data");
+        another._ownerId = "another";
+        repository.save(another);
+        when(storeRepository.findIdsByOwner("owner", AsyncConversation.class)).thenReturn(List.of("id1", "id2"));
+
+        assertEquals(List.of("id1", "id2"), repository.findIdsByOwner("owner", AsyncConversation.class));
+    }
+
+    @Test
+    void flush_ShouldWriteOneByOne_WhenBatchFails() {
+        repository.save(conversation(new AsyncConversation(), "id1", "data"));
+        repository.save(conversation(new AsyncConversation(), "id2", "data"));
+        doThrow(new RuntimeException("batch failed")).when(storeRepository).saveAll(anyCollection());
+        doThrow(new RuntimeException("failed")).doNothing().when(storeRepository).save(any());
+
+        buffer.flush();
+
+        verify(storeRepository, times(2)).save(any());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void close_ShouldFlushBufferedSaves_AndStopBuffering() {
+        repository.save(conversation(new AsyncConversation(), "id", "data"));
+
+        buffer.close();
+
+        assertEquals(1, savedBatch().size());
+        var conversation = conversation(new AsyncConversation(), "id", "after close");
+        repository.save(conversation);
+        verify(storeRepository).save(conversation, SaveContext.UNKNOWN);
+    }
+
+    @Test
+    void save_ShouldNotBeOverwrittenByBufferedCopy_WhenSavedWhileClosing() throws Exception {
+        var executor = Executors.newSingleThreadScheduledExecutor();
+        var closing = new AsyncSaveBuffer(storeRepository, codec, 10, 10, Duration.ofHours(1), executor);
+        var closingRepository = new AsyncSaveStoreRepository(storeRepository, closing);
+        closingRepository.save(conversation(new AsyncConversation(), "id", "buffered"));
+        // keeps close() waiting for the executor, after the buffer is closed and before it is flushed
+        var release = new CountDownLatch(1);
+        executor.execute(() -> awaitUninterruptibly(release));
+        var close = CompletableFuture.runAsync(closing::close);
+        while (!executor.isShutdown()) {
+            Thread.onSpinWait();
+        }
+
+        var conversation = conversation(new AsyncConversation(), "id", "saved while closing");
+        closingRepository.save(conversation);
+        release.countDown();
+        close.get(5, TimeUnit.SECONDS);
+
+        verify(storeRepository).save(conversation, SaveContext.UNKNOWN);
+        verify(storeRepository, never()).saveAll(anyCollection());
+    }
+
+    @Test
+    void flush_ShouldRunInBackground() {
+        var background = new AsyncSaveBuffer(storeRepository, codec, 10, 10, Duration.ofMillis(10),
+                Executors.newSingleThreadScheduledExecutor());
+        try {
+            new AsyncSaveStoreRepository(storeRepository, background)
+                    .saveAll(List.of(conversation(new AsyncConversation(), "id", "data")));
+
+            verify(storeRepository, timeout(1000)).saveAll(anyCollection());
+        } finally {
+            background.close();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<AbstractConversationHolder> savedBatch() {
+        ArgumentCaptor<Collection<AbstractConversationHolder>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(storeRepository).saveAll(captor.capture());
+        return captor.getValue();
+    }
+
+    private static <T extends AbstractConversationHolder> T conversation(T t, String id, String data) {
+        t.id = id;
+        if (t instanceof AsyncConversation it) {
+            it.data = data;
+        } else if (t instanceof SyncConversation it) {
+            it.data = data;
+        }
+        return t;
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.mhewedy.convo.store;
+
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+/**
+ * A Redis server started on a free port for the tests of the Redis stores.
+ */
+class EmbeddedRedis {
+
+    private final RedisServer server;
+    private final LettuceConnectionFactory connectionFactory;
+
+    EmbeddedRedis() {
+        try {
+            int port;
+            try (var socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            server = RedisServer.newRedisServer().bind("127.0.0.1").port(port).build();
+            server.start();
+            connectionFactory = new LettuceConnectionFactory("127.0.0.1", port);
+            connectionFactory.afterPropertiesSet();
+            connectionFactory.start();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    StringRedisTemplate stringTemplate() {
+        return new StringRedisTemplate(connectionFactory);
+    }
+
+    RedisTemplate<String, byte[]> bytesTemplate() {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    void flushAll() {
+        connectionFactory.getConnection().serverCommands().flushAll();
+    }
+
+    void stop() {
+        connectionFactory.destroy();
+        try {
+            server.stop();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationException;
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JdbcDialectTest {
+
+    static class FirstConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String data;
+    }
+
+    static class SecondConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String data;
+    }
+
+    @Test
+    void fromProductName_ShouldDetectSupportedDatabases() {
+        assertEquals(JdbcDialect.POSTGRES, JdbcDialect.fromProductName("PostgreSQL"));
+        assertEquals(JdbcDialect.MYSQL, JdbcDialect.fromProductName("MySQL"));
+        assertEquals(JdbcDialect.MYSQL, JdbcDialect.fromProductName("MariaDB"));
+        assertEquals(JdbcDialect.MSSQL, JdbcDialect.fromProductName("Microsoft SQL Server"));
+        assertEquals(JdbcDialect.H2, JdbcDialect.fromProductName("H2"));
+    }
+
+    @Test
+    void fromProductName_ShouldFallbackToGeneric_WhenUnknown() {
+        assertEquals(JdbcDialect.GENERIC, JdbcDialect.fromProductName("Oracle"));
+        assertEquals(JdbcDialect.GENERIC, JdbcDialect.fromProductName(null));
+        assertFalse(JdbcDialect.GENERIC.supportsUpsert());
+    }
+
+    @Test
+    void mysqlUpsert_ShouldFail_WhenIdIsUsedByAnotherClass() {
+        var jdbcTemplate = mysqlTemplate(new ArrayList<>());
+        var store = new JdbcStoreRepository(new JacksonConversationCodec(new ObjectMapper()),
+                ConversationCompressor.disabled(), JdbcDialect.MYSQL, jdbcTemplate, new ConvoProperties(), null, null);
+
+        var first = new FirstConversation();
+        first.id = "id";
+        first.data = "first";
+        store.save(first);
+
+        var second = new SecondConversation();
+        second.id = "id";
+        second.data = "second";
+        assertThrows(ConversationException.class, () -> store.save(second));
+        assertThrows(ConversationException.class, () -> store.saveAll(List.of(second)));
+
+        first.data = "changed";
+        store.save(first);
+        store.saveAll(List.of(first));
+        assertEquals("changed", store.findById("id", FirstConversation.class).orElseThrow().data);
+        assertTrue(store.findById("id", SecondConversation.class).isEmpty());
+    }
+
+    @Test
+    void mysqlUpsert_ShouldNotReadBackTheClass_WhenRowUpdated() {
+        List<String> queries = new ArrayList<>();
+        var store = new JdbcStoreRepository(new JacksonConversationCodec(new ObjectMapper()),
+                ConversationCompressor.disabled(), JdbcDialect.MYSQL, mysqlTemplate(queries), new ConvoProperties(),
+                null, null);
+        var first = new FirstConversation();
+        first.id = "id";
+        first.data = "first";
+        store.save(first);
+        queries.clear();
+
+        first.data = "changed";
+        store.save(first);
+        store.saveAll(List.of(first));
+
+        assertEquals(List.of(), queries);
+    }
+
+    /**
+     * H2 in MySQL mode, reporting the rows matched by {@code ON DUPLICATE KEY UPDATE} as affected even if not
+     * changed, as MySQL Connector/J does by default ({@code useAffectedRows=false}), and recording the queries run.
+     */
+    private static NamedParameterJdbcTemplate mysqlTemplate(List<String> queries) {
+        var dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        var jdbcTemplate = new NamedParameterJdbcTemplate(dataSource) {
+            @Override
+            public int update(String sql, SqlParameterSource paramSource) {
+                int count = super.update(sql, paramSource);
+                return sql.contains("ON DUPLICATE KEY UPDATE") ? Math.max(count, 1) : count;
+            }
+
+            @Override
+            public int[] batchUpdate(String sql, SqlParameterSource[] batchArgs) {
+                int[] counts = super.batchUpdate(sql, batchArgs);
+                return sql.contains("ON DUPLICATE KEY UPDATE") ? Arrays.stream(counts).map(it -> Math.max(it, 1))
+                        .toArray() : counts;
+            }
+
+            @Override
+            public <T> T query(String sql, SqlParameterSource paramSource, ResultSetExtractor<T> rse) {
+                queries.add(sql);
+                return super.query(sql, paramSource, rse);
+            }
+
+            @Override
+            public void query(String sql, SqlParameterSource paramSource, RowCallbackHandler rch) {
+                queries.add(sql);
+                super.query(sql, paramSource, rch);
+            }
+        };
+        jdbcTemplate.update("create table conversation_holder (id varchar(50) primary key, expires_at timestamp, " +
+                "conversation_class varchar(500), conversation_value text, revision bigint, owner_id varchar(255))",
+                Map.of());
+        return jdbcTemplate;
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.ConversationException;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JdbcPartitionManagerTest {
+
+    private static final Instant NOW = Instant.parse("2026-10-16T10:30:00Z");
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    @Mock
+    private JdbcOperations jdbcOperations;
+
+    @Test
+    void partitionStarts_ShouldBeAlignedAndCoverCreateAhead() {
+        var manager = new JdbcPartitionManager(jdbcTemplate, JdbcDialect.POSTGRES, Duration.ofDays(1), Duration.ofDays(2));
+
+        assertEquals(List.of(Instant.parse("2026-10-16T00:00:00Z"), Instant.parse("2026-10-17T00:00:00Z"),
+                Instant.parse("2026-10-18T00:00:00Z")), manager.partitionStarts(NOW));
+        assertEquals("conversation_holder_p202610160000", manager.name(Instant.parse("2026-10-16T00:00:00Z")));
+        assertEquals(Instant.parse("2026-10-16T00:00:00Z"), manager.parseStart("conversation_holder_p202610160000"));
+        assertNull(manager.parseStart("conversation_holder_other"));
+    }
+
+    @Test
+    void createPartitions_ShouldCreateMissingPartitionsOnly() {
+        var manager = new JdbcPartitionManager(jdbcTemplate, JdbcDialect.MYSQL, Duration.ofDays(1), Duration.ofDays(1));
+        when(jdbcTemplate.queryForList(anyString(), anyMap(), eq(String.class))).thenReturn(List.of("p202610160000"));
+        when(jdbcTemplate.getJdbcOperations()).thenReturn(jdbcOperations);
+
+        assertEquals(1, manager.createPartitions(NOW));
+
+        verify(jdbcOperations).execute(startsWith("ALTER TABLE conversation_holder ADD PARTITION (PARTITION p202610170000 VALUES LESS THAN ("));
+        verifyNoMoreInteractions(jdbcOperations);
+    }
+
+    @Test
+    void dropExpiredPartitions_ShouldDropPartitionsEndedBeforeNow() {
+        var manager = new JdbcPartitionManager(jdbcTemplate, JdbcDialect.POSTGRES, Duration.ofDays(1), Duration.ofDays(1));
+        when(jdbcTemplate.queryForList(anyString(), anyMap(), eq(String.class))).thenReturn(List.of(
+                "conversation_holder_p202610140000", "conversation_holder_p202610150000",
+                "conversation_holder_p202610160000", "conversation_holder_p202610170000"));
+        when(jdbcTemplate.getJdbcOperations()).thenReturn(jdbcOperations);
+
+        assertEquals(2, manager.dropExpiredPartitions(NOW));
+
+        verify(jdbcOperations).execute("DROP TABLE IF EXISTS conversation_holder_p202610140000");
+        verify(jdbcOperations).execute("DROP TABLE IF EXISTS conversation_holder_p202610150000");
+        verifyNoMoreInteractions(jdbcOperations);
+    }
+
+    @Test
+    void lockId_ShouldReleaseMysqlLock_WhenTransactionCompletes() {
+        var manager = new JdbcPartitionManager(jdbcTemplate, JdbcDialect.MYSQL, Duration.ofDays(1), Duration.ofDays(1));
+        when(jdbcTemplate.queryForObject(startsWith("SELECT GET_LOCK"), any(SqlParameterSource.class), eq(Integer.class)))
+                .thenReturn(1);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            manager.lockId("id");
+            // the name is hashed, as the ids can be longer than the 64 characters allowed by MySQL
+            verify(jdbcTemplate).queryForObject(eq("SELECT GET_LOCK(SHA1(:name), :timeout)"),
+                    any(SqlParameterSource.class), eq(Integer.class));
+            verify(jdbcTemplate, never()).queryForObject(startsWith("SELECT RELEASE_LOCK"), any(SqlParameterSource.class),
+                    eq(Integer.class));
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(it -> it.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            verify(jdbcTemplate).queryForObject(startsWith("SELECT RELEASE_LOCK"), any(SqlParameterSource.class),
+                    eq(Integer.class));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void lockId_ShouldThrow_WhenMysqlLockTimesOut() {
+        var manager = new JdbcPartitionManager(jdbcTemplate, JdbcDialect.MYSQL, Duration.ofDays(1), Duration.ofDays(1));
+        when(jdbcTemplate.queryForObject(startsWith("SELECT GET_LOCK"), any(SqlParameterSource.class), eq(Integer.class)))
+                .thenReturn(0);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            assertThrows(ConversationException.class, () -> manager.lockId("id"));
+            assertTrue(TransactionSynchronizationManager.getSynchronizations().isEmpty());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void lockId_ShouldThrow_WhenNoTransaction() {
+        var manager = new JdbcPartitionManager(jdbcTemplate, JdbcDialect.POSTGRES, Duration.ofDays(1), Duration.ofDays(1));
+
+        assertThrows(IllegalStateException.class, () -> manager.lockId("id"));
+    }
+
+    @Test
+    void storeShouldThrow_WhenOptimisticLockingEnabled() {
+        var properties = new ConvoProperties();
+        properties.getJdbc().getPartitioning().setEnabled(true);
+        properties.setOptimisticLocking(true);
+
+        assertThrows(IllegalStateException.class, () -> new JdbcStoreRepository(
+                new JacksonConversationCodec(new ObjectMapper()), ConversationCompressor.disabled(),
+                JdbcDialect.POSTGRES, jdbcTemplate, properties, null, null));
+    }
+
+    @Test
+    void shouldThrow_WhenDialectNotSupported() {
+        assertThrows(IllegalStateException.class, () ->
+                new JdbcPartitionManager(jdbcTemplate, JdbcDialect.H2, Duration.ofDays(1), Duration.ofDays(1)));
+    }
+}
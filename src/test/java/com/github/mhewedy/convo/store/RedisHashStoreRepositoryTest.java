@@ -0,0 +1,206 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationRepository;
+import com.github.mhewedy.convo.RequestScope;
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.annotations.TimeToLive;
+import com.github.mhewedy.convo.annotations.TrackUpdatedSteps;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisHashStoreRepositoryTest {
+
+    private static EmbeddedRedis redis;
+
+    private final JacksonConversationCodec codec = new JacksonConversationCodec(new ObjectMapper());
+    private StringRedisTemplate redisTemplate;
+    private RedisHashStoreRepository store;
+    private ConversationRepository conversationRepository;
+
+    @TimeToLive(duration = "PT10M")
+    static class TestConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String first;
+        @Step(2)
+        public String second;
+        @Step(3)
+        public String third;
+    }
+
+    @TrackUpdatedSteps
+    static class TrackedConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String first;
+        @Step(2)
+        public String second;
+    }
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        redisTemplate = redis.stringTemplate();
+        store = new RedisHashStoreRepository(redisTemplate, codec, ConversationCompressor.disabled());
+        conversationRepository = new ConversationRepository(() -> UUID.randomUUID().toString(), new ObjectMapper(),
+                store, RequestScope.NONE, true);
+    }
+
+    @Test
+    void save_ShouldWriteOnlyTheUpdatedStep_WhenPreviousStepsUnchanged() {
+        var conversation = new TestConversation();
+        conversation.first = "first";
+        conversationRepository.save(null, conversation);
+        var loaded = conversationRepository.findById(null, conversation.id, TestConversation.class);
+
+        // changed behind the loaded copy, kept since step 1 is not written by the partial save
+        setStep(conversation.id, 1, "changed in store");
+        loaded.second = "second";
+        conversationRepository.save(null, loaded);
+
+        var found = conversationRepository.findById(null, conversation.id, TestConversation.class);
+        assertEquals("changed in store", found.first);
+        assertEquals("second", found.second);
+    }
+
+    @Test
+    void save_ShouldWriteTheWholeConversation_WhenRevisionNotChecked() {
+        conversationRepository = new ConversationRepository(() -> UUID.randomUUID().toString(), new ObjectMapper(),
+                store);
+        var conversation = new TestConversation();
+        conversation.first = "first";
+        conversationRepository.save(null, conversation);
+        var loaded = conversationRepository.findById(null, conversation.id, TestConversation.class);
+
+        setStep(conversation.id, 1, "changed in store");
+        loaded.second = "second";
+        conversationRepository.save(null, loaded);
+
+        var found = conversationRepository.findById(null, conversation.id, TestConversation.class);
+        assertEquals("first", found.first);
+        assertEquals("second", found.second);
+    }
+
+    @Test
+    void save_ShouldWriteTheWholeConversation_WhenPreviousStepCleared() {
+        var conversation = new TestConversation();
+        conversation.first = "first";
+        conversationRepository.save(null, conversation);
+        var loaded = conversationRepository.findById(null, conversation.id, TestConversation.class);
+        loaded.second = "second";
+        conversationRepository.save(null, loaded);
+
+        loaded.first = null;
+        loaded.third = "third";
+        conversationRepository.save(null, loaded);
+
+        var found = conversationRepository.findById(null, conversation.id, TestConversation.class);
+        assertNull(found.first);
+        assertEquals("second", found.second);
+        assertEquals("third", found.third);
+    }
+
+    @Test
+    void save_ShouldWriteTheWholeConversation_WhenNoStepUpdatedAndPreviousStepCleared() {
+        var conversation = new TestConversation();
+        conversation.first = "first";
+        conversationRepository.save(null, conversation);
+        var loaded = conversationRepository.findById(null, conversation.id, TestConversation.class);
+
+        loaded.first = null;
+        conversationRepository.save(null, loaded);
+
+        assertNull(conversationRepository.findById(null, conversation.id, TestConversation.class).first);
+    }
+
+    @Test
+    void save_ShouldWriteTheWholeConversation_WhenStepsAreTracked() {
+        var conversation = new TrackedConversation();
+        conversation.first = "first";
+        conversationRepository.save(null, conversation);
+        var loaded = conversationRepository.findById(null, conversation.id, TrackedConversation.class);
+
+        loaded.first = "changed";
+        loaded.second = "second";
+        loaded.markStepUpdated(2);
+        conversationRepository.save(null, loaded);
+
+        var found = conversationRepository.findById(null, conversation.id, TrackedConversation.class);
+        assertEquals("changed", found.first);
+        assertEquals("second", found.second);
+    }
+
+    @Test
+    void findById_ShouldRestoreExpiresAt() {
+        var conversation = new TestConversation();
+        conversation.first = "first";
+        conversationRepository.save(null, conversation);
+
+        var found = store.findById(conversation.id, TestConversation.class).orElseThrow();
+        var all = store.findAllById(List.of(conversation.id), TestConversation.class);
+
+        assertExpiresIn(Duration.ofMinutes(10), found._expiresAt);
+        assertEquals(1, all.size());
+        assertExpiresIn(Duration.ofMinutes(10), all.get(0)._expiresAt);
+    }
+
+    @Test
+    void saveAll_ShouldLoadTheScripts_WhenFlushedFromRedis() {
+        var properties = new ConvoProperties();
+        properties.setOwnerIndex(true);
+        var indexedRepository = new ConversationRepository(() -> UUID.randomUUID().toString(), new ObjectMapper(),
+                new RedisHashStoreRepository(redisTemplate, codec, ConversationCompressor.disabled(),
+                        RedisKeyStrategy.ID, properties));
+        var first = new TestConversation();
+        first.first = "first";
+        var second = new TestConversation();
+        second.first = "second";
+
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+        indexedRepository.saveAll("owner", List.of(first, second));
+
+        var found = indexedRepository.findAllByOwner("owner", TestConversation.class);
+        assertEquals(2, found.size());
+        assertEquals("first", indexedRepository.findById("owner", first.id, TestConversation.class).first);
+    }
+
+    private void setStep(String id, int step, String value) {
+        redisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.hashCommands().hSet(RedisKeyStrategy.ID.key(id, TestConversation.class).getBytes(),
+                        ("step:" + step).getBytes(), codec.encode(value)));
+    }
+
+    private static void assertExpiresIn(Duration timeToLive, Instant expiresAt) {
+        assertNotNull(expiresAt);
+        var now = Instant.now();
+        assertFalse(expiresAt.isAfter(now.plus(timeToLive)), "expires after the time to live: " + expiresAt);
+        assertTrue(expiresAt.isAfter(now.plus(timeToLive).minusSeconds(30)), "expires too early: " + expiresAt);
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RedisKeyStrategyTest {
+
+    static class TestConversation extends AbstractConversationHolder {
+    }
+
+    @Test
+    void id_ShouldUseConversationIdAsIs() {
+        assertEquals("abc", RedisKeyStrategy.ID.key("abc", TestConversation.class));
+        assertEquals("abc", RedisKeyStrategy.of("", false, false).key("abc", TestConversation.class));
+    }
+
+    @Test
+    void of_ShouldPrefixAndIncludeClassAndHashTag() {
+        var strategy = RedisKeyStrategy.of("convo:", true, true);
+
+        assertEquals("convo:TestConversation:{abc}", strategy.key("abc", TestConversation.class));
+        assertEquals("convo:{abc}", RedisKeyStrategy.of("convo:", false, true).key("abc", TestConversation.class));
+        assertEquals("TestConversation:abc", RedisKeyStrategy.of(null, true, false).key("abc", TestConversation.class));
+    }
+
+    @Test
+    void of_ShouldPutAllKeysOfConversationInSameSlot_WhenHashTag() {
+        var key = RedisKeyStrategy.of("convo:", true, true).key("abc", TestConversation.class);
+
+        assertEquals(ClusterSlotHashUtil.calculateSlot("abc"), ClusterSlotHashUtil.calculateSlot(key));
+        assertEquals(ClusterSlotHashUtil.calculateSlot(key),
+                ClusterSlotHashUtil.calculateSlot(key + RedisStoreRepository.META_SUFFIX));
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.mhewedy.convo.store;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.ConversationConflictException;
+import com.github.mhewedy.convo.ConversationException;
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.codec.ConversationCompressor;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.config.ConvoProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.GenericJacksonJsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisStoreRepositoryTest {
+
+    private static EmbeddedRedis redis;
+
+    static class TestConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String first;
+    }
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void findById_ShouldReadConversationsOfThePreviousTemplate() {
+        var legacyTemplate = legacyTemplate();
+        var stored = new TestConversation();
+        stored.id = "legacy-id";
+        stored.first = "first";
+        legacyTemplate.opsForValue().set(stored.id, stored, Duration.ofMinutes(10));
+
+        var store = new RedisStoreRepository(legacyTemplate);
+        var found = store.findById(stored.id, TestConversation.class).orElseThrow();
+        assertEquals("first", found.first);
+
+        found.first = "changed";
+        store.save(found);
+        assertEquals("changed", store.findById(stored.id, TestConversation.class).orElseThrow().first);
+    }
+
+    @Test
+    void save_ShouldKeepTheRevision_OnlyWhenExpected() {
+        var store = new RedisStoreRepository(redis.bytesTemplate(), new JacksonConversationCodec(new ObjectMapper()),
+                ConversationCompressor.disabled());
+        var conversation = new TestConversation();
+        conversation.id = "id";
+        conversation.first = "first";
+
+        store.save(conversation);
+        store.saveAll(List.of(conversation));
+        assertEquals(Set.of("id"), redis.stringTemplate().keys("*"));
+
+        conversation._revision = 1;
+        store.save(conversation, new SaveContext(true, 0, 0L));
+        assertEquals(Set.of("id", "id" + RedisStoreRepository.META_SUFFIX), redis.stringTemplate().keys("*"));
+        assertThrows(ConversationConflictException.class, () -> store.save(conversation, new SaveContext(true, 0, 0L)));
+    }
+
+    @Test
+    void save_ShouldRejectIdsOfOwnerIndexKeys_WhenOwnerIndexEnabled() {
+        var properties = new ConvoProperties();
+        properties.setOwnerIndex(true);
+        var store = new RedisStoreRepository(redis.bytesTemplate(), new JacksonConversationCodec(new ObjectMapper()),
+                ConversationCompressor.disabled(), RedisKeyStrategy.ID, properties);
+        var owned = new TestConversation();
+        owned.id = "id";
+        owned._ownerId = "bob";
+        store.save(owned);
+
+        var colliding = new TestConversation();
+        colliding.id = "owner:bob";
+        assertThrows(ConversationException.class, () -> store.save(colliding));
+        colliding.id = "owner";
+        assertThrows(ConversationException.class, () -> store.save(colliding));
+
+        assertEquals(List.of("id"), store.findIdsByOwner("bob", TestConversation.class));
+    }
+
+    private static RedisTemplate<String, AbstractConversationHolder> legacyTemplate() {
+        RedisTemplate<String, AbstractConversationHolder> template = new RedisTemplate<>();
+        template.setConnectionFactory(redis.bytesTemplate().getRequiredConnectionFactory());
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new GenericJacksonJsonRedisSerializer(new ObjectMapper()));
+        template.afterPropertiesSet();
+        return template;
+    }
+}
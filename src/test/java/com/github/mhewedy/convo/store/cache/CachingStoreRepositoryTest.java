@@ -0,0 +1,114 @@
+package com.github.mhewedy.convo.store.cache;
+
+import com.github.mhewedy.convo.AbstractConversationHolder;
+import com.github.mhewedy.convo.annotations.Step;
+import com.github.mhewedy.convo.codec.JacksonConversationCodec;
+import com.github.mhewedy.convo.store.StoreRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachingStoreRepositoryTest {
+
+    @Mock
+    private StoreRepository storeRepository;
+
+    private final JacksonConversationCodec codec = new JacksonConversationCodec(new ObjectMapper());
+    private final InProcessCacheInvalidationBroadcaster broadcaster = new InProcessCacheInvalidationBroadcaster();
+    private CachingStoreRepository node1;
+    private CachingStoreRepository node2;
+
+    static class TestConversation extends AbstractConversationHolder {
+        @Step(1)
+        public String data;
+    }
+
+    @BeforeEach
+    void setUp() {
+        node1 = new CachingStoreRepository(storeRepository, codec, broadcaster, 100, Duration.ofMinutes(1));
+        node2 = new CachingStoreRepository(storeRepository, codec, broadcaster, 100, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void findById_ShouldReadStoreOnce_AndReturnCopies() {
+        when(storeRepository.findById("id", TestConversation.class)).thenReturn(Optional.of(conversation("data")));
+
+        var first = node1.findById("id", TestConversation.class).orElseThrow();
+        var second = node1.findById("id", TestConversation.class).orElseThrow();
+
+        verify(storeRepository, times(1)).findById("id", TestConversation.class);
+        assertNotSame(first, second);
+        assertEquals("data", second.data);
+    }
+
+    @Test
+    void save_ShouldCacheLocally_AndInvalidateOtherNodes() {
+        when(storeRepository.findById("id", TestConversation.class)).thenReturn(Optional.of(conversation("old")));
+        node2.findById("id", TestConversation.class);
+
+        node1.save(conversation("new"));
+
+        assertEquals("new", node1.findById("id", TestConversation.class).orElseThrow().data);
+        verify(storeRepository, times(1)).findById("id", TestConversation.class);
+
+        when(storeRepository.findById("id", TestConversation.class)).thenReturn(Optional.of(conversation("new")));
+        assertEquals("new", node2.findById("id", TestConversation.class).orElseThrow().data);
+        verify(storeRepository, times(2)).findById("id", TestConversation.class);
+    }
+
+    @Test
+    void findById_ShouldReadStore_WhenCachedCopyExpired() throws InterruptedException {
+        var repository = new CachingStoreRepository(storeRepository, codec, broadcaster, 100, Duration.ofMillis(1));
+        when(storeRepository.findById("id", TestConversation.class)).thenReturn(Optional.of(conversation("data")));
+
+        repository.findById("id", TestConversation.class);
+        Thread.sleep(5);
+        repository.findById("id", TestConversation.class);
+
+        verify(storeRepository, times(2)).findById("id", TestConversation.class);
+    }
+
+    @Test
+    void delete_ShouldEvictFromAllNodes() {
+        when(storeRepository.findById("id", TestConversation.class)).thenReturn(Optional.of(conversation("data")));
+        node1.findById("id", TestConversation.class);
+        node2.findById("id", TestConversation.class);
+
+        node1.delete(conversation("data"));
+        when(storeRepository.findById("id", TestConversation.class)).thenReturn(Optional.empty());
+
+        assertTrue(node1.findById("id", TestConversation.class).isEmpty());
+        assertTrue(node2.findById("id", TestConversation.class).isEmpty());
+    }
+
+    @Test
+    void findById_ShouldNotCacheStaleRead_WhenSavedWhileReading() {
+        when(storeRepository.findById("id", TestConversation.class)).thenAnswer(invocation -> {
+            // the save completes while the old value is being returned by the store
+            node1.save(conversation("new"));
+            return Optional.of(conversation("old"));
+        });
+
+        assertEquals("old", node1.findById("id", TestConversation.class).orElseThrow().data);
+
+        assertEquals("new", node1.findById("id", TestConversation.class).orElseThrow().data);
+        verify(storeRepository, times(1)).findById("id", TestConversation.class);
+    }
+
+    private static TestConversation conversation(String data) {
+        var conversation = new TestConversation();
+        conversation.id = "id";
+        conversation.data = data;
+        return conversation;
+    }
+}